@@ -0,0 +1,519 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Losslessly shrinks the assets inside of packs. PNG images get their ancillary chunks
+ * stripped and their image data re-filtered and re-compressed, JSON files get minified.
+ * Results are cached on disk by the hash of the original content so that only
+ * changed assets need to be processed again.
+ */
+public class AssetOptimizer {
+
+    /**
+     * Increase when the output of the optimizer changes so that old cache entries aren't used anymore
+     */
+    private static final String CACHE_VERSION = "v1";
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Ancillary chunks that are required to display the image correctly in the game
+     */
+    private static final Set<String> KEPT_CHUNKS = ImmutableSet.of("IHDR", "PLTE", "IDAT", "IEND", "tRNS");
+
+    private static final Set<String> JSON_EXTENSIONS = ImmutableSet.of(".json", ".mcmeta");
+
+    private final ResourcepacksPlugin plugin;
+    private final Path cacheDirectory;
+
+    private long maxSize = 256L * 1024 * 1024;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    /**
+     * Create a new asset optimizer
+     * @param plugin            The plugin
+     * @param cacheDirectory    The directory to cache results in, null to not cache them
+     */
+    public AssetOptimizer(ResourcepacksPlugin plugin, Path cacheDirectory) {
+        this.plugin = plugin;
+        this.cacheDirectory = cacheDirectory != null ? cacheDirectory.resolve(CACHE_VERSION) : null;
+    }
+
+    /**
+     * Check whether the optimizer can do something with an entry
+     * @param name The name of the entry
+     * @return Whether the entry is a PNG or JSON file
+     */
+    public boolean supports(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        if (lowerName.endsWith(".png")) {
+            return true;
+        }
+        for (String extension : JSON_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Optimize an asset
+     * @param name The name of the entry
+     * @param data The content of the entry
+     * @return The optimized content or the original content if it could not be made smaller
+     */
+    public byte[] optimize(String name, byte[] data) {
+        if (data.length == 0 || !supports(name)) {
+            return data;
+        }
+        String hash = Hashing.sha1().hashBytes(data).toString();
+        Path cached = cacheDirectory != null ? cacheDirectory.resolve(hash.substring(0, 2)).resolve(hash) : null;
+        if (cached != null && Files.isRegularFile(cached)) {
+            try {
+                byte[] result = Files.readAllBytes(cached);
+                // the modification time is used to evict the least recently used assets
+                Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+                cacheHits.incrementAndGet();
+                // an empty result means that the asset couldn't be optimized
+                return result.length > 0 ? result : data;
+            } catch (IOException e) {
+                plugin.logDebug("Unable to read cached asset " + cached + ": " + e.getMessage());
+            }
+        }
+
+        byte[] result;
+        try {
+            result = name.toLowerCase(Locale.ROOT).endsWith(".png") ? optimizePng(data) : minifyJson(data);
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            plugin.logDebug("Unable to optimize " + name + ": " + e.getMessage());
+            result = null;
+        }
+        processed.incrementAndGet();
+        if (result != null && result.length >= data.length) {
+            result = null;
+        }
+
+        if (cached != null) {
+            try {
+                Files.createDirectories(cached.getParent());
+                Path temp = Files.createTempFile(cached.getParent(), hash, ".tmp");
+                Files.write(temp, result != null ? result : new byte[0]);
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to cache optimized asset " + name, e);
+            }
+        }
+        return result != null ? result : data;
+    }
+
+    /**
+     * Set the maximum amount of bytes that the cached assets should use
+     * @param maxSize The maximum size in bytes, 0 to not limit it
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        evict();
+    }
+
+    /**
+     * Get the maximum amount of bytes that the cached assets should use
+     * @return The maximum size in bytes, 0 if it isn't limited
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Delete the least recently used cached assets until the cache is smaller than its maximum size.
+     * Caches of older optimizer versions are deleted completely as they aren't used anymore.
+     */
+    public synchronized void evict() {
+        if (cacheDirectory == null || !Files.isDirectory(cacheDirectory.getParent())) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        try (Stream<Path> stream = Files.walk(cacheDirectory.getParent())) {
+            for (Iterator<Path> it = stream.iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                BasicFileAttributes fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (fileAttributes.isRegularFile()) {
+                    files.add(file);
+                    attributes.put(file, fileAttributes);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            plugin.log(Level.WARNING, "Unable to list cached assets in " + cacheDirectory, e);
+            return;
+        }
+
+        long totalSize = 0;
+        for (BasicFileAttributes fileAttributes : attributes.values()) {
+            totalSize += fileAttributes.size();
+        }
+        files.sort(Comparator.comparing((Path file) -> file.startsWith(cacheDirectory))
+                .thenComparing(file -> attributes.get(file).lastModifiedTime()));
+        int evicted = 0;
+        for (Path file : files) {
+            if (file.startsWith(cacheDirectory) && (maxSize <= 0 || totalSize <= maxSize)) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(file);
+                totalSize -= attributes.get(file).size();
+                evicted++;
+            } catch (IOException e) {
+                plugin.logDebug("Unable to delete cached asset " + file + ": " + e.getMessage());
+            }
+        }
+        if (evicted > 0) {
+            plugin.logDebug("Evicted " + evicted + " assets from asset cache, it now uses " + totalSize + " bytes");
+        }
+    }
+
+    /**
+     * Get the amount of assets that were served from the cache and reset the counter
+     * @return The amount of cache hits
+     */
+    public long getAndResetCacheHits() {
+        return cacheHits.getAndSet(0);
+    }
+
+    /**
+     * Get the amount of assets that had to be processed and reset the counter
+     * @return The amount of processed assets
+     */
+    public long getAndResetProcessed() {
+        return processed.getAndSet(0);
+    }
+
+    /**
+     * Remove whitespace outside of strings from a JSON document
+     * @param data The JSON
+     * @return The minified JSON or null if it contains comments or isn't valid enough to be minified safely
+     */
+    static byte[] minifyJson(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        boolean inString = false;
+        int start = 0;
+        // keep an UTF-8 byte order mark
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            out.write(data, 0, 3);
+            start = 3;
+        }
+        for (int i = start; i < data.length; i++) {
+            byte b = data[i];
+            if (inString) {
+                out.write(b);
+                if (b == '\\') {
+                    if (++i >= data.length) {
+                        return null;
+                    }
+                    out.write(data[i]);
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+                out.write(b);
+            } else if (b == '/' || b == '#') {
+                // comments are accepted by lenient parsers, leave such files alone
+                return null;
+            } else if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                out.write(b);
+            }
+        }
+        return inString ? null : out.toByteArray();
+    }
+
+    /**
+     * Strip ancillary chunks from a PNG and re-encode its image data
+     * @param data The PNG file
+     * @return The optimized PNG or null if it isn't a PNG that can be optimized
+     * @throws IOException If the PNG is broken
+     * @throws DataFormatException If the image data could not be inflated
+     */
+    static byte[] optimizePng(byte[] data) throws IOException, DataFormatException {
+        if (data.length < PNG_SIGNATURE.length || !Arrays.equals(Arrays.copyOf(data, PNG_SIGNATURE.length), PNG_SIGNATURE)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(PNG_SIGNATURE.length);
+
+        ByteArrayOutputStream chunksBeforeData = new ByteArrayOutputStream();
+        ByteArrayOutputStream chunksAfterData = new ByteArrayOutputStream();
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(data.length);
+        byte[] header = null;
+        boolean seenData = false;
+        boolean ended = false;
+        while (buffer.remaining() >= 12 && !ended) {
+            int length = buffer.getInt();
+            byte[] typeBytes = new byte[4];
+            buffer.get(typeBytes);
+            String type = new String(typeBytes, StandardCharsets.US_ASCII);
+            if (length < 0 || length > buffer.remaining() - 4) {
+                throw new IOException("Invalid length of chunk " + type);
+            }
+            byte[] chunk = new byte[length];
+            buffer.get(chunk);
+            buffer.getInt(); // crc
+
+            switch (type) {
+                case "IHDR":
+                    header = chunk;
+                    break;
+                case "IDAT":
+                    idat.write(chunk);
+                    seenData = true;
+                    break;
+                case "IEND":
+                    ended = true;
+                    break;
+                case "acTL":
+                    // animated PNGs need their frame chunks, leave them alone
+                    return null;
+                default:
+                    if (KEPT_CHUNKS.contains(type)) {
+                        writeChunk(seenData ? chunksAfterData : chunksBeforeData, type, chunk);
+                    } else if (Character.isUpperCase(type.charAt(0))) {
+                        // unknown critical chunk, can't safely touch this image
+                        return null;
+                    }
+            }
+        }
+        if (header == null || header.length != 13 || !seenData || !ended) {
+            throw new IOException("Incomplete PNG");
+        }
+
+        byte[] imageData = idat.toByteArray();
+        int interlace = header[12];
+        if (interlace == 0) {
+            byte[] refiltered = refilter(header, inflate(imageData));
+            if (refiltered != null) {
+                byte[] compressed = deflate(refiltered);
+                if (compressed.length < imageData.length) {
+                    imageData = compressed;
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(PNG_SIGNATURE);
+        writeChunk(out, "IHDR", header);
+        chunksBeforeData.writeTo(out);
+        writeChunk(out, "IDAT", imageData);
+        chunksAfterData.writeTo(out);
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    /**
+     * Undo the filters of all scanlines and filter them again with the filter
+     * that produces the smallest sum of absolute values for each line
+     * @param header    The IHDR chunk
+     * @param filtered  The inflated image data
+     * @return The re-filtered image data or null if the image data doesn't match the header
+     */
+    private static byte[] refilter(byte[] header, byte[] filtered) {
+        ByteBuffer ihdr = ByteBuffer.wrap(header);
+        long width = ihdr.getInt() & 0xFFFFFFFFL;
+        long height = ihdr.getInt() & 0xFFFFFFFFL;
+        int bitDepth = ihdr.get();
+        int colorType = ihdr.get();
+        int channels;
+        switch (colorType) {
+            case 0: case 3: channels = 1; break;
+            case 2: channels = 3; break;
+            case 4: channels = 2; break;
+            case 6: channels = 4; break;
+            default: return null;
+        }
+        int bitsPerPixel = channels * bitDepth;
+        int bpp = Math.max(1, bitsPerPixel / 8);
+        long rowLength = (width * bitsPerPixel + 7) / 8;
+        if (rowLength <= 0 || (rowLength + 1) * height != filtered.length) {
+            return null;
+        }
+        int stride = (int) rowLength;
+
+        byte[] result = new byte[filtered.length];
+        byte[] previous = new byte[stride];
+        byte[] current = new byte[stride];
+        byte[] candidate = new byte[stride];
+        byte[] best = new byte[stride];
+        for (int y = 0; y < height; y++) {
+            int offset = y * (stride + 1);
+            int filter = filtered[offset];
+            System.arraycopy(filtered, offset + 1, current, 0, stride);
+            if (!unfilter(filter, current, previous, bpp)) {
+                return null;
+            }
+
+            int bestFilter = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int f = 0; f < 5; f++) {
+                long sum = filter(f, current, previous, bpp, candidate);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    bestFilter = f;
+                    System.arraycopy(candidate, 0, best, 0, stride);
+                }
+            }
+            result[offset] = (byte) bestFilter;
+            System.arraycopy(best, 0, result, offset + 1, stride);
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return result;
+    }
+
+    private static boolean unfilter(int filter, byte[] line, byte[] previous, int bpp) {
+        for (int i = 0; i < line.length; i++) {
+            int a = i >= bpp ? line[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            switch (filter) {
+                case 0: break;
+                case 1: line[i] += a; break;
+                case 2: line[i] += b; break;
+                case 3: line[i] += (a + b) >>> 1; break;
+                case 4: line[i] += paeth(a, b, c); break;
+                default: return false;
+            }
+        }
+        return true;
+    }
+
+    private static long filter(int filter, byte[] line, byte[] previous, int bpp, byte[] out) {
+        long sum = 0;
+        for (int i = 0; i < line.length; i++) {
+            int x = line[i] & 0xFF;
+            int a = i >= bpp ? line[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            int value;
+            switch (filter) {
+                case 1: value = x - a; break;
+                case 2: value = x - b; break;
+                case 3: value = x - ((a + b) >>> 1); break;
+                case 4: value = x - paeth(a, b, c); break;
+                default: value = x;
+            }
+            out[i] = (byte) value;
+            // treat the bytes as signed so that small negative differences count as small
+            sum += Math.abs((int) (byte) value);
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated image data");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(data.length);
+        out.write(length.array(), 0, 4);
+        out.write(typeBytes, 0, typeBytes.length);
+        out.write(data, 0, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes, 0, typeBytes.length);
+        crc.update(data, 0, data.length);
+        ByteBuffer crcBytes = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        out.write(crcBytes.array(), 0, 4);
+    }
+}
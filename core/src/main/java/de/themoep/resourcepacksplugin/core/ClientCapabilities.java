@@ -0,0 +1,94 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * What the client of a player supports. This doesn't change while the player is connected
+ * so it only needs to be looked up once when they log in.
+ */
+public class ClientCapabilities {
+
+    private final int protocol;
+    private final int packFormat;
+    private final ClientType clientType;
+    private final boolean multiplePacks;
+
+    /**
+     * @param protocol      The protocol version of the client, -1 if unknown
+     * @param packFormat    The pack format that the client can maximally use, -1 if unknown
+     * @param clientType    The type of the client
+     * @param multiplePacks Whether the client supports multiple packs at once
+     */
+    public ClientCapabilities(int protocol, int packFormat, ClientType clientType, boolean multiplePacks) {
+        this.protocol = protocol;
+        this.packFormat = packFormat;
+        this.clientType = clientType;
+        this.multiplePacks = multiplePacks;
+    }
+
+    /**
+     * Get the protocol version of the client
+     * @return The protocol version or -1 if unknown
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Get the format of the pack that the client can maximally use
+     * @return The pack format or -1 if unknown
+     */
+    public int getPackFormat() {
+        return packFormat;
+    }
+
+    /**
+     * Get the type of the client
+     * @return The client type
+     */
+    public ClientType getClientType() {
+        return clientType;
+    }
+
+    /**
+     * Check whether the client supports multiple packs at once
+     * @return true or false
+     */
+    public boolean supportsMultiplePacks() {
+        return multiplePacks;
+    }
+
+    /**
+     * Check whether the client is a Bedrock client
+     * @return true or false
+     */
+    public boolean isBedrock() {
+        return clientType == ClientType.BEDROCK;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientCapabilities{" +
+                "protocol=" + protocol +
+                ", packFormat=" + packFormat +
+                ", clientType=" + clientType +
+                ", multiplePacks=" + multiplePacks +
+                '}';
+    }
+}
@@ -0,0 +1,432 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * Persistent index of the hashes of local pack files so that they
+ * don't need to be re-hashed on every start if they didn't change.
+ * Also stores the HTTP validators of remote pack urls so that
+ * unchanged remote packs don't need to be downloaded again, and the
+ * hashes of artifacts that were built from pack files.
+ * Changes are saved in batches a few seconds after the first unsaved change.
+ */
+public class HashIndex {
+
+    private static final int FORMAT_VERSION = 3;
+
+    private static final long SAVE_DELAY = 5;
+
+    private final ResourcepacksPlugin plugin;
+    private final Path file;
+
+    /**
+     * absolute path -> entry
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * url -> remote entry
+     */
+    private final Map<String, RemoteEntry> remoteEntries = new ConcurrentHashMap<>();
+
+    /**
+     * artifact key -> hash of the artifact
+     */
+    private final Map<String, String> artifacts = new ConcurrentHashMap<>();
+
+    /**
+     * Whether there are changes that weren't saved yet, a save is scheduled when this gets set
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService saver;
+
+    public HashIndex(ResourcepacksPlugin plugin, Path file) {
+        this.plugin = plugin;
+        this.file = file;
+        this.saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Hash Index Saver")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Load the index from its file. Unknown or broken files are ignored.
+     */
+    public void load() {
+        entries.clear();
+        remoteEntries.clear();
+        artifacts.clear();
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                plugin.logDebug("Ignoring hash index " + file + " with unknown format version " + version);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = in.readUTF();
+                entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+            }
+            if (version >= 2) {
+                int remoteSize = in.readInt();
+                for (int i = 0; i < remoteSize; i++) {
+                    String url = in.readUTF();
+                    remoteEntries.put(url, new RemoteEntry(in.readUTF(), in.readUTF(), in.readUTF()));
+                }
+            }
+            if (version >= 3) {
+                int artifactSize = in.readInt();
+                for (int i = 0; i < artifactSize; i++) {
+                    artifacts.put(in.readUTF(), in.readUTF());
+                }
+            }
+            plugin.logDebug("Loaded " + entries.size() + " local, " + remoteEntries.size() + " remote and " + artifacts.size() + " artifact entries from hash index");
+        } catch (IOException e) {
+            entries.clear();
+            remoteEntries.clear();
+            artifacts.clear();
+            plugin.log(Level.WARNING, "Unable to load hash index " + file + "! All local packs will be re-hashed.", e);
+            return;
+        }
+        if (entries.keySet().removeIf(path -> !Files.exists(Paths.get(path)))) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Remove all entries that aren't needed anymore, e.g. because the pack was removed or its file was replaced.
+     * The changes are saved in the next batch.
+     * @param keepFile      Checks whether the entry of a local file (by its absolute path) should be kept
+     * @param keepUrl       Checks whether the entry of a remote url should be kept
+     * @param keepArtifact  Checks whether an artifact (by its key and hash) should be kept
+     */
+    public void prune(Predicate<String> keepFile, Predicate<String> keepUrl, BiPredicate<String, String> keepArtifact) {
+        int before = entries.size() + remoteEntries.size() + artifacts.size();
+        entries.keySet().removeIf(path -> !keepFile.test(path));
+        remoteEntries.keySet().removeIf(url -> !keepUrl.test(url));
+        artifacts.entrySet().removeIf(e -> !keepArtifact.test(e.getKey(), e.getValue()));
+        int pruned = before - entries.size() - remoteEntries.size() - artifacts.size();
+        if (pruned > 0) {
+            plugin.logDebug("Pruned " + pruned + " entries that aren't needed anymore from hash index");
+            markDirty();
+        }
+    }
+
+    /**
+     * Get the hashes of all local files and remote urls in the index
+     * @return A new set of the hashes
+     */
+    public Set<String> getHashes() {
+        Set<String> hashes = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            hashes.add(entry.hash);
+        }
+        for (RemoteEntry entry : remoteEntries.values()) {
+            hashes.add(entry.hash);
+        }
+        return hashes;
+    }
+
+    private void markDirty() {
+        if (dirty.compareAndSet(false, true)) {
+            try {
+                saver.schedule(this::saveIfDirty, SAVE_DELAY, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed, the changes were or will be saved by close()
+            }
+        }
+    }
+
+    /**
+     * Save the index to its file if it changed since it was last saved
+     */
+    public void saveIfDirty() {
+        if (dirty.getAndSet(false)) {
+            save();
+        }
+    }
+
+    /**
+     * Stop saving in the background and save the remaining changes
+     */
+    public void close() {
+        saver.shutdownNow();
+        saveIfDirty();
+    }
+
+    /**
+     * Save the index to its file
+     */
+    public synchronized void save() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                Map<String, Entry> copy = new LinkedHashMap<>(entries);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(copy.size());
+                for (Map.Entry<String, Entry> e : copy.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().size);
+                    out.writeLong(e.getValue().modified);
+                    out.writeUTF(e.getValue().fileKey);
+                    out.writeUTF(e.getValue().hash);
+                }
+                Map<String, RemoteEntry> remoteCopy = new LinkedHashMap<>(remoteEntries);
+                out.writeInt(remoteCopy.size());
+                for (Map.Entry<String, RemoteEntry> e : remoteCopy.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue().etag);
+                    out.writeUTF(e.getValue().lastModified);
+                    out.writeUTF(e.getValue().hash);
+                }
+                Map<String, String> artifactCopy = new LinkedHashMap<>(artifacts);
+                out.writeInt(artifactCopy.size());
+                for (Map.Entry<String, String> e : artifactCopy.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to save hash index " + file, e);
+        }
+    }
+
+    /**
+     * Get the stored hash of a file if the file didn't change since it was stored
+     * @param path  The path of the file
+     * @param attributes The current attributes of the file
+     * @return The stored hash or <code>null</code> if there is none or the file looks changed
+     */
+    public String getHash(Path path, BasicFileAttributes attributes) {
+        Entry entry = entries.get(key(path));
+        if (entry != null && entry.matches(attributes)) {
+            return entry.hash;
+        }
+        return null;
+    }
+
+    /**
+     * Store the hash of a file
+     * @param path  The path of the file
+     * @param attributes The attributes of the file at the time that it was hashed
+     * @param hash  The hash of the file
+     */
+    public void putHash(Path path, BasicFileAttributes attributes, String hash) {
+        Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes), hash);
+        if (!entry.equals(entries.put(key(path), entry))) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Get the stored validators of a remote url
+     * @param url The url
+     * @return The remote entry or <code>null</code> if none is stored
+     */
+    public RemoteEntry getRemote(String url) {
+        return remoteEntries.get(url);
+    }
+
+    /**
+     * Store the validators that a remote url returned together with the hash of its content
+     * @param url           The url
+     * @param etag          The value of the ETag header, can be null
+     * @param lastModified  The value of the Last-Modified header, can be null
+     * @param hash          The hash of the content
+     */
+    public void putRemote(String url, String etag, String lastModified, String hash) {
+        if ((etag == null || etag.isEmpty()) && (lastModified == null || lastModified.isEmpty())) {
+            if (remoteEntries.remove(url) != null) {
+                markDirty();
+            }
+            return;
+        }
+        RemoteEntry entry = new RemoteEntry(etag != null ? etag : "", lastModified != null ? lastModified : "", hash);
+        if (!entry.equals(remoteEntries.put(url, entry))) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Get the hash of an artifact that was built from other files, e.g. an optimized version of a pack
+     * @param key The key of the artifact, should contain the hashes of everything that it was built from
+     * @return The hash of the artifact or <code>null</code> if it wasn't built yet
+     */
+    public String getArtifact(String key) {
+        return artifacts.get(key);
+    }
+
+    /**
+     * Store the hash of an artifact that was built from other files
+     * @param key  The key of the artifact, should contain the hashes of everything that it was built from
+     * @param hash The hash of the artifact
+     */
+    public void putArtifact(String key, String hash) {
+        if (!hash.equals(artifacts.put(key, hash))) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Read the attributes of a file that are relevant for the index
+     * @param path The path of the file
+     * @return The attributes or <code>null</code> if the file does not exist
+     * @throws IOException If the attributes could not be read
+     */
+    public static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the key under which the entry of a local file is stored
+     * @param path The path of the file
+     * @return The absolute, normalized path
+     */
+    public static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() != null ? attributes.fileKey().toString() : "";
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final String hash;
+
+        private Entry(long size, long modified, String fileKey, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && modified == attributes.lastModifiedTime().toMillis()
+                    && fileKey.equals(fileKey(attributes));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return size == entry.size && modified == entry.modified
+                    && fileKey.equals(entry.fileKey) && hash.equals(entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modified, fileKey, hash);
+        }
+    }
+
+    /**
+     * The HTTP validators of a remote url
+     */
+    public static class RemoteEntry {
+        private final String etag;
+        private final String lastModified;
+        private final String hash;
+
+        private RemoteEntry(String etag, String lastModified, String hash) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * Get the entity tag that the url returned
+         * @return The ETag or <code>null</code> if none was returned
+         */
+        public String getEtag() {
+            return etag.isEmpty() ? null : etag;
+        }
+
+        /**
+         * Get the last modification date that the url returned
+         * @return The Last-Modified header value or <code>null</code> if none was returned
+         */
+        public String getLastModified() {
+            return lastModified.isEmpty() ? null : lastModified;
+        }
+
+        /**
+         * Get the hash of the content that the url returned with these validators
+         * @return The hash
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RemoteEntry that = (RemoteEntry) o;
+            return etag.equals(that.etag) && lastModified.equals(that.lastModified) && hash.equals(that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(etag, lastModified, hash);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.file.Path;
+
+/**
+ * A file that is served by the built-in web server
+ */
+public class HostedFile {
+    private final Path file;
+    private final String hash;
+
+    public HostedFile(Path file, String hash) {
+        this.file = file;
+        this.hash = hash;
+    }
+
+    /**
+     * Get the file that should be sent
+     * @return The path of the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Get the sha1 hash of the file
+     * @return The hash or an empty string if it is not known yet
+     */
+    public String getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,334 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Periodically measures the latency and availability of the urls of packs that have mirrors
+ * and selects which of them players should download a pack from.
+ */
+public class MirrorHealthChecker {
+
+    /**
+     * How a url is selected from the available mirrors
+     */
+    public enum Selection {
+        /**
+         * Always use the mirror with the lowest latency
+         */
+        FASTEST,
+        /**
+         * Spread the downloads over all available mirrors weighted by their latency
+         */
+        WEIGHTED
+    }
+
+    private final ResourcepacksPlugin plugin;
+
+    private final ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> task = null;
+
+    /**
+     * url -> last known status
+     */
+    private final Map<String, MirrorStatus> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * url -> current weight of the weighted round-robin
+     */
+    private final Map<String, Long> currentWeights = new HashMap<>();
+
+    private Selection selection = Selection.FASTEST;
+
+    private int timeout = 5000;
+
+    public MirrorHealthChecker(ResourcepacksPlugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Mirror Health Checker")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Start checking the mirrors of all packs. If it was already started then the previous schedule is replaced.
+     * @param interval The time between two checks in milliseconds, 0 to stop checking
+     */
+    public synchronized void start(long interval) {
+        stop();
+        if (interval > 0) {
+            task = scheduler.scheduleWithFixedDelay(this::checkAll, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop checking the mirrors, the last known statuses are kept
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(true);
+            task = null;
+        }
+    }
+
+    /**
+     * Stop checking and shut down the checker thread
+     */
+    public synchronized void close() {
+        stop();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Set how a url is selected from the available mirrors
+     * @param selection The selection mode
+     */
+    public void setSelection(Selection selection) {
+        this.selection = selection;
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Set how long to wait for a mirror to respond before it is considered unavailable
+     * @param timeout The timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(1, timeout);
+    }
+
+    /**
+     * Check all urls of packs that have mirrors
+     */
+    public void checkAll() {
+        Set<String> urls = new LinkedHashSet<>();
+        for (ResourcePack pack : plugin.getPackManager().getPacks()) {
+            addUrls(urls, pack);
+        }
+        statuses.keySet().retainAll(urls);
+        synchronized (currentWeights) {
+            currentWeights.keySet().retainAll(urls);
+        }
+        for (String url : urls) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            check(url);
+        }
+    }
+
+    private void addUrls(Set<String> urls, ResourcePack pack) {
+        if (!pack.getMirrors().isEmpty()) {
+            if (!pack.getUrl().isEmpty()) {
+                urls.add(pack.getUrl());
+            }
+            urls.addAll(pack.getMirrors());
+        }
+        for (ResourcePack variant : pack.getVariants()) {
+            addUrls(urls, variant);
+        }
+    }
+
+    /**
+     * Measure the latency and availability of a url with a HEAD request
+     * @param url The url to check
+     * @return The new status of the url
+     */
+    public MirrorStatus check(String url) {
+        MirrorStatus previous = statuses.get(url);
+        MirrorStatus status;
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+            con.setRequestMethod("HEAD");
+            con.setConnectTimeout(timeout);
+            con.setReadTimeout(timeout);
+            con.setRequestProperty("User-Agent", plugin.getName() + "/" + plugin.getVersion());
+            int code = con.getResponseCode();
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            con.disconnect();
+            if (code >= 200 && code < 300) {
+                if (previous != null && previous.isAvailable()) {
+                    // smooth out single slow responses
+                    latency = (previous.getLatency() * 7 + latency * 3) / 10;
+                }
+                status = new MirrorStatus(true, latency, null);
+            } else {
+                status = new MirrorStatus(false, latency, "HTTP " + code);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            status = new MirrorStatus(false, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        statuses.put(url, status);
+
+        if (!status.isAvailable() && (previous == null || previous.isAvailable())) {
+            plugin.log(Level.WARNING, "Pack mirror " + url + " is unavailable: " + status.getError());
+        } else if (status.isAvailable() && previous != null && !previous.isAvailable()) {
+            plugin.log(Level.INFO, "Pack mirror " + url + " is available again");
+        }
+        plugin.logDebug("Checked pack mirror " + url + ": " + status);
+        return status;
+    }
+
+    /**
+     * Get the last known status of a url
+     * @param url The url
+     * @return The status or <code>null</code> if it wasn't checked yet
+     */
+    public MirrorStatus getStatus(String url) {
+        return statuses.get(url);
+    }
+
+    /**
+     * Select the url that a pack should be downloaded from.
+     * Only urls that are known to be available are selected. If none are then the pack's main url is used.
+     * @param pack The pack
+     * @return The selected url
+     */
+    public String selectUrl(ResourcePack pack) {
+        if (pack.getMirrors().isEmpty()) {
+            return pack.getUrl();
+        }
+        List<String> available = new ArrayList<>(pack.getMirrors().size() + 1);
+        if (isAvailable(pack.getUrl())) {
+            available.add(pack.getUrl());
+        }
+        for (String mirror : pack.getMirrors()) {
+            if (isAvailable(mirror)) {
+                available.add(mirror);
+            }
+        }
+        if (available.isEmpty()) {
+            return pack.getUrl();
+        } else if (available.size() == 1) {
+            return available.get(0);
+        }
+
+        if (selection == Selection.WEIGHTED) {
+            return selectWeighted(available);
+        }
+        String fastest = null;
+        long fastestLatency = Long.MAX_VALUE;
+        for (String url : available) {
+            long latency = statuses.get(url).getLatency();
+            if (latency < fastestLatency) {
+                fastest = url;
+                fastestLatency = latency;
+            }
+        }
+        return fastest;
+    }
+
+    private boolean isAvailable(String url) {
+        MirrorStatus status = statuses.get(url);
+        return status != null && status.isAvailable();
+    }
+
+    /**
+     * Smooth weighted round-robin where the weight of a url is inversely proportional to its latency
+     */
+    private String selectWeighted(List<String> urls) {
+        synchronized (currentWeights) {
+            long total = 0;
+            String selected = null;
+            long selectedWeight = Long.MIN_VALUE;
+            for (String url : urls) {
+                MirrorStatus status = statuses.get(url);
+                long weight = status != null ? Math.max(1, 100000 / Math.max(1, status.getLatency())) : 1;
+                long current = currentWeights.merge(url, weight, Long::sum);
+                total += weight;
+                if (current > selectedWeight) {
+                    selected = url;
+                    selectedWeight = current;
+                }
+            }
+            currentWeights.put(selected, selectedWeight - total);
+            return selected;
+        }
+    }
+
+    /**
+     * The result of checking a url
+     */
+    public static class MirrorStatus {
+        private final boolean available;
+        private final long latency;
+        private final String error;
+        private final long checked = System.currentTimeMillis();
+
+        private MirrorStatus(boolean available, long latency, String error) {
+            this.available = available;
+            this.latency = latency;
+            this.error = error;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /**
+         * Get the time until the url responded, smoothed over multiple checks
+         * @return The latency in milliseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Get why the url is unavailable
+         * @return The error or <code>null</code> if it is available
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Get when the url was checked
+         * @return The timestamp in milliseconds
+         */
+        public long getChecked() {
+            return checked;
+        }
+
+        @Override
+        public String toString() {
+            return available ? "available (" + latency + "ms)" : "unavailable (" + error + ")";
+        }
+    }
+}
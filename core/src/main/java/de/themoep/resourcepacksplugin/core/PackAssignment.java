@@ -21,10 +21,12 @@ package de.themoep.resourcepacksplugin.core;
 import de.themoep.resourcepacksplugin.core.commands.PluginCommandExecutor;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -38,13 +40,23 @@ public class PackAssignment {
     private long sendDelay = -1;
     private Pattern regex = null;
     private final String name;
+    private final boolean readOnly;
 
     public PackAssignment(String name) {
+        this(name, false);
+    }
+
+    private PackAssignment(String name, boolean readOnly) {
         this.name = name;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            packs = new ReadOnlySet();
+            optionalPacks = new ReadOnlySet();
+        }
     }
 
     public PackAssignment(PackAssignment assignment) {
-        this(assignment.getName());
+        this(assignment.getName(), false);
         this.packs.addAll(assignment.getPacks());
         this.optionalPacks.addAll(assignment.getOptionalPacks());
         this.sendDelay = assignment.getSendDelay();
@@ -73,6 +85,9 @@ public class PackAssignment {
      */
     @Deprecated
     public boolean setPack(String pack) {
+        if (readOnly) {
+            return false;
+        }
         if (pack == null) {
             if (packs.isEmpty()) {
                 return false;
@@ -139,7 +154,7 @@ public class PackAssignment {
      * @return      <code>true</code> as defined in Collections.add
      */
     public boolean addPack(String pack) {
-        return packs.add(pack.toLowerCase(Locale.ROOT));
+        return !readOnly && packs.add(pack.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -157,7 +172,7 @@ public class PackAssignment {
      * @return      <code>true</code> if that pack was a main pack, <code>false</code> if not
      */
     public boolean removePack(String pack) {
-        return packs.remove(pack.toLowerCase(Locale.ROOT));
+        return !readOnly && packs.remove(pack.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -201,7 +216,7 @@ public class PackAssignment {
      * @return      <code>true</code> as defined in Collections.add
      */
     public boolean addOptionalPack(String pack) {
-        return optionalPacks.add(pack.toLowerCase(Locale.ROOT));
+        return !readOnly && optionalPacks.add(pack.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -219,7 +234,7 @@ public class PackAssignment {
      * @return      <code>true</code> if that pack was a optional one, <code>false</code> if not
      */
     public boolean removeOptionalPack(String pack) {
-        return optionalPacks.remove(pack.toLowerCase(Locale.ROOT));
+        return !readOnly && optionalPacks.remove(pack.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -312,7 +327,7 @@ public class PackAssignment {
      * @return          Whether or not the value changed
      */
     public boolean setSendDelay(long sendDelay) {
-        if (this.sendDelay != sendDelay) {
+        if (!readOnly && this.sendDelay != sendDelay) {
             this.sendDelay = sendDelay;
             return true;
         }
@@ -346,6 +361,9 @@ public class PackAssignment {
      * @return      Whether or not the value changed
      */
     public boolean setRegex(Pattern regex) {
+        if (readOnly) {
+            return false;
+        }
         if (this.regex == null || regex == null || !this.regex.toString().equals(regex.toString())) {
             if ((this.regex == null && regex != null) || (this.regex != null && regex == null)) {
                 this.regex = regex;
@@ -371,6 +389,24 @@ public class PackAssignment {
         return name;
     }
 
+    /**
+     * Check whether this assignment can be changed
+     * @return  <code>true</code> if it is a shared assignment whose setters don't change anything
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Create an empty assignment that can't be changed and can therefore be shared.
+     * Its setters don't change anything and return <code>false</code>, the pack sets that it returns can't be modified.
+     * @param name  The name of the assignment
+     * @return      The read-only assignment
+     */
+    static PackAssignment readOnly(String name) {
+        return new PackAssignment(name, true);
+    }
+
     /**
      * Serialize this assignment to a map
      * @return A map holding the data of this object
@@ -531,4 +567,45 @@ public class PackAssignment {
 
         return true;
     }
+
+    /**
+     * The pack names of a read-only assignment, always empty
+     */
+    private static class ReadOnlySet extends LinkedHashSet<String> {
+
+        @Override
+        public boolean add(String s) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends String> c) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super String> filter) {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only assignment");
+        }
+    }
 }
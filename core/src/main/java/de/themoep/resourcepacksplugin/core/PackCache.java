@@ -0,0 +1,262 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed on-disk store of pack files. Files are stored by their sha1 hash
+ * so every version of a pack is only stored once, and the least recently used files
+ * are evicted when the store grows above its size limit.
+ */
+public class PackCache {
+
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{40}\\.zip");
+
+    private final ResourcepacksPlugin plugin;
+    private final Path directory;
+    private final PackHasher hasher;
+    private final Predicate<String> inUse;
+
+    /**
+     * hash -> size, in access order
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+    private long maxSize = 512L * 1024 * 1024;
+
+    /**
+     * Create a new cache
+     * @param plugin    The plugin
+     * @param directory The directory to store the files in
+     * @param hasher    The hasher to hash new files with
+     * @param inUse     Check whether a hash is currently used by a pack, such files are never evicted
+     */
+    public PackCache(ResourcepacksPlugin plugin, Path directory, PackHasher hasher, Predicate<String> inUse) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.hasher = hasher;
+        this.inUse = inUse;
+    }
+
+    /**
+     * Load the files that already exist in the cache directory.
+     * Their last modification time is used as the last access time.
+     */
+    public synchronized void load() {
+        files.clear();
+        totalSize = 0;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Map.Entry<Path, BasicFileAttributes>> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (FILE_NAME.matcher(file.getFileName().toString()).matches()) {
+                    existing.add(new AbstractMap.SimpleEntry<>(file, Files.readAttributes(file, BasicFileAttributes.class)));
+                } else if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to read pack cache " + directory, e);
+        }
+        existing.sort(Comparator.comparing(e -> e.getValue().lastModifiedTime()));
+        for (Map.Entry<Path, BasicFileAttributes> entry : existing) {
+            String name = entry.getKey().getFileName().toString();
+            files.put(name.substring(0, name.length() - ".zip".length()), entry.getValue().size());
+            totalSize += entry.getValue().size();
+        }
+        plugin.logDebug("Loaded " + files.size() + " files with " + totalSize + " bytes from pack cache");
+    }
+
+    /**
+     * Set the maximum amount of bytes that the cache should use.
+     * Files of packs that are in use are kept even if that means that the size is exceeded.
+     * @param maxSize The maximum size in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        evict();
+    }
+
+    /**
+     * Get the maximum amount of bytes that the cache should use
+     * @return The maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the amount of bytes that the cached files use
+     * @return The size in bytes
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * Check whether the file with a certain hash is cached
+     * @param hash The sha1 hash of the file
+     * @return Whether the file is cached
+     */
+    public synchronized boolean contains(String hash) {
+        return hash != null && files.containsKey(hash);
+    }
+
+    /**
+     * Get the path of a cached file and mark it as recently used
+     * @param hash The sha1 hash of the file
+     * @return The path of the file or <code>null</code> if it is not cached
+     */
+    public Path get(String hash) {
+        synchronized (this) {
+            if (hash == null || files.get(hash) == null) {
+                return null;
+            }
+        }
+        Path file = getPath(hash);
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // file was removed externally
+            synchronized (this) {
+                Long size = files.remove(hash);
+                if (size != null) {
+                    totalSize -= size;
+                }
+            }
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Store the data of a stream in the cache. Does not close the stream.
+     * @param in The stream to read the data from
+     * @return The result of hashing the stored data, the file can be retrieved with its hash
+     * @throws IOException If the data could not be read or stored
+     */
+    public PackHasher.Result store(InputStream in) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "download-", ".tmp");
+        try {
+            PackHasher.Result result;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                result = hasher.copy(in, out);
+            }
+            add(temp, result.getHash().toString(), result.getSize());
+            return result;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Store a file in the cache
+     * @param file The file to copy into the cache
+     * @param hash The sha1 hash of the file
+     * @return The path of the cached file
+     * @throws IOException If the file could not be copied
+     */
+    public Path store(Path file, String hash) throws IOException {
+        Path cached = get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "copy-", ".tmp");
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            add(temp, hash, Files.size(temp));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return getPath(hash);
+    }
+
+    private void add(Path temp, String hash, long size) throws IOException {
+        Path target = getPath(hash);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // another download of the same version finished first
+        }
+        synchronized (this) {
+            Long previous = files.put(hash, size);
+            if (previous == null) {
+                totalSize += size;
+            }
+        }
+        evict(hash);
+    }
+
+    /**
+     * Evict the least recently used files that aren't in use until the cache is smaller than its maximum size
+     */
+    public void evict() {
+        evict(null);
+    }
+
+    private void evict(String keep) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator(); it.hasNext() && totalSize > maxSize; ) {
+                Map.Entry<String, Long> entry = it.next();
+                if (!entry.getKey().equals(keep) && !inUse.test(entry.getKey())) {
+                    it.remove();
+                    totalSize -= entry.getValue();
+                    evicted.add(entry.getKey());
+                }
+            }
+        }
+        for (String hash : evicted) {
+            try {
+                Files.deleteIfExists(getPath(hash));
+                plugin.logDebug("Evicted " + hash + " from pack cache");
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to delete " + hash + " from pack cache", e);
+            }
+        }
+    }
+
+    private Path getPath(String hash) {
+        return directory.resolve(hash + ".zip");
+    }
+}
@@ -0,0 +1,415 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Watches pack files for changes and notifies the listeners of a file once it stopped changing.
+ * Listeners are indexed by their directory and file name so that events only reach the listeners
+ * of the file that changed, and multiple events of one upload are coalesced into a single notification.
+ * If the file system does not support watching then the metadata of all files is polled instead,
+ * directories which can't be watched on their own fall back to polling only their files.
+ */
+public class PackFileWatcher {
+
+    private final ResourcepacksPlugin plugin;
+
+    private WatchService watchService = null;
+
+    private Thread watchThread = null;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * directory -> watch key
+     */
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+
+    /**
+     * directory -> file name -> listeners
+     */
+    private final Map<Path, Map<Path, List<Consumer<Path>>>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * file path -> change that waits for the file to become stable
+     */
+    private final Map<Path, PendingChange> pendingChanges = new ConcurrentHashMap<>();
+
+    /**
+     * directories that couldn't be watched and whose files are polled instead
+     */
+    private final Set<Path> polledDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * file path -> last known state, only used when polling
+     */
+    private final Map<Path, FileState> polledFiles = new ConcurrentHashMap<>();
+
+    private ScheduledFuture<?> pollTask = null;
+
+    private long stabilityDelay = 1000;
+
+    private long pollInterval = 5000;
+
+    public PackFileWatcher(ResourcepacksPlugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " File Change Dispatcher")
+                .setDaemon(true)
+                .build());
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to create file watcher!", e);
+        }
+    }
+
+    /**
+     * Whether or not this watcher is able to receive file change events
+     * @return <code>true</code> if there is a working watch service; <code>false</code> if files are polled
+     */
+    public boolean isWatching() {
+        return watchService != null;
+    }
+
+    /**
+     * Set the interval in which file metadata is checked when the file system can't be watched
+     * @param pollInterval The interval in milliseconds
+     */
+    public synchronized void setPollInterval(long pollInterval) {
+        this.pollInterval = Math.max(100, pollInterval);
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+            startPolling();
+        }
+    }
+
+    /**
+     * Set how long a file needs to stay unchanged before the listeners get notified
+     * @param stabilityDelay The delay in milliseconds
+     */
+    public void setStabilityDelay(long stabilityDelay) {
+        this.stabilityDelay = Math.max(0, stabilityDelay);
+    }
+
+    /**
+     * Register a listener for changes of a file
+     * @param file      The file to watch
+     * @param listener  The listener that gets called with the file's path once it changed and is stable
+     * @return Whether or not the file could be watched
+     */
+    public synchronized boolean register(Path file, Consumer<Path> listener) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path dir = absolute.getParent();
+        listeners.computeIfAbsent(dir, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(absolute.getFileName(), f -> new CopyOnWriteArrayList<>())
+                .add(listener);
+
+        if (watchService != null && !polledDirectories.contains(dir)) {
+            try {
+                if (!watchKeys.containsKey(dir)) {
+                    watchKeys.put(dir, dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+                }
+                startWatchThread();
+                return true;
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to watch directory " + dir + ". Falling back to polling its files every " + pollInterval + "ms!", e);
+                polledDirectories.add(dir);
+                for (Path fileName : listeners.get(dir).keySet()) {
+                    addPolledFile(dir.resolve(fileName));
+                }
+            }
+        } else {
+            addPolledFile(absolute);
+        }
+        startPolling();
+        return false;
+    }
+
+    /**
+     * Replace all listeners with new ones in one step. Directories that are still needed stay watched
+     * and changes that are waiting for their file to become stable notify the new listeners.
+     * @param registrations file -> listeners that replace the current ones
+     */
+    public synchronized void replace(Map<Path, List<Consumer<Path>>> registrations) {
+        Map<Path, WatchKey> previousKeys = new HashMap<>(watchKeys);
+        Map<Path, FileState> previousStates = new HashMap<>(polledFiles);
+        watchKeys.clear();
+        listeners.clear();
+        polledFiles.clear();
+        for (Map.Entry<Path, List<Consumer<Path>>> entry : registrations.entrySet()) {
+            Path absolute = entry.getKey().toAbsolutePath().normalize();
+            WatchKey key = previousKeys.remove(absolute.getParent());
+            if (key != null) {
+                watchKeys.put(absolute.getParent(), key);
+            }
+            FileState state = previousStates.get(absolute);
+            if (state != null) {
+                polledFiles.put(absolute, state);
+            }
+            for (Consumer<Path> listener : entry.getValue()) {
+                register(absolute, listener);
+            }
+        }
+        for (WatchKey key : previousKeys.values()) {
+            key.cancel();
+        }
+    }
+
+    /**
+     * Remove all listeners and stop watching their directories
+     */
+    public synchronized void clear() {
+        for (WatchKey key : watchKeys.values()) {
+            key.cancel();
+        }
+        watchKeys.clear();
+        listeners.clear();
+        pendingChanges.clear();
+        polledDirectories.clear();
+        polledFiles.clear();
+    }
+
+    /**
+     * Stop watching for file changes
+     */
+    public synchronized void close() {
+        clear();
+        stopWatching();
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void stopWatching() {
+        for (WatchKey key : watchKeys.values()) {
+            key.cancel();
+        }
+        watchKeys.clear();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Error while closing file watcher", e);
+            }
+            watchService = null;
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+    }
+
+    private void addPolledFile(Path file) {
+        polledFiles.computeIfAbsent(file, f -> new FileState(readState(f)));
+    }
+
+    private void startPolling() {
+        if (pollTask == null && !scheduler.isShutdown()) {
+            pollTask = scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        for (Map.Entry<Path, FileState> entry : polledFiles.entrySet()) {
+            BasicFileAttributes attributes = readState(entry.getKey());
+            FileState state = entry.getValue();
+            if (!state.matches(attributes)) {
+                state.update(attributes);
+                if (attributes != null) {
+                    onChange(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private BasicFileAttributes readState(Path file) {
+        try {
+            return HashIndex.readAttributes(file);
+        } catch (IOException e) {
+            plugin.logDebug("Unable to read attributes of " + file, e);
+            return null;
+        }
+    }
+
+    private void startWatchThread() {
+        if (watchThread != null) {
+            return;
+        }
+        WatchService service = watchService;
+        watchThread = new Thread(() -> watch(service), plugin.getName() + " File Watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watch(WatchService service) {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+                // just end the thread
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            Map<Path, List<Consumer<Path>>> dirListeners = listeners.get(dir);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (dirListeners == null) {
+                    continue;
+                }
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (Path fileName : dirListeners.keySet()) {
+                        onChange(dir.resolve(fileName));
+                    }
+                } else if (event.context() instanceof Path && dirListeners.containsKey((Path) event.context())) {
+                    onChange(dir.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private void onChange(Path file) {
+        pendingChanges.compute(file, (f, pending) -> {
+            if (pending == null) {
+                plugin.logDebug("Detected change of " + file + ", waiting for it to become stable");
+                pending = new PendingChange();
+                scheduleCheck(file);
+            } else {
+                pending.changed = true;
+            }
+            return pending;
+        });
+    }
+
+    private void scheduleCheck(Path file) {
+        scheduler.schedule(() -> checkStable(file), stabilityDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkStable(Path file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = HashIndex.readAttributes(file);
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to read attributes of " + file, e);
+            attributes = null;
+        }
+        if (attributes == null) {
+            // File is gone, wait for it to be created again
+            pendingChanges.remove(file);
+            return;
+        }
+
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        boolean[] stable = {false};
+        pendingChanges.computeIfPresent(file, (f, pending) -> {
+            if (pending.changed || pending.size != size || pending.modified != modified) {
+                pending.changed = false;
+                pending.size = size;
+                pending.modified = modified;
+                scheduleCheck(file);
+                return pending;
+            }
+            stable[0] = true;
+            return null;
+        });
+        if (!stable[0]) {
+            return;
+        }
+
+        Map<Path, List<Consumer<Path>>> dirListeners = listeners.get(file.getParent());
+        List<Consumer<Path>> fileListeners = dirListeners != null ? dirListeners.get(file.getFileName()) : null;
+        if (fileListeners == null) {
+            return;
+        }
+        plugin.logDebug("File " + file + " is stable, notifying " + fileListeners.size() + " listeners");
+        for (Consumer<Path> listener : fileListeners) {
+            try {
+                listener.accept(file);
+            } catch (Exception e) {
+                plugin.log(Level.SEVERE, "Error while handling change of file " + file, e);
+            }
+        }
+    }
+
+    private static class FileState {
+        private long size = -1;
+        private long modified = -1;
+        private Object fileKey = null;
+
+        private FileState(BasicFileAttributes attributes) {
+            update(attributes);
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            if (attributes == null) {
+                return size == -1;
+            }
+            return size == attributes.size()
+                    && modified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+
+        private void update(BasicFileAttributes attributes) {
+            if (attributes == null) {
+                size = -1;
+                modified = -1;
+                fileKey = null;
+            } else {
+                size = attributes.size();
+                modified = attributes.lastModifiedTime().toMillis();
+                fileKey = attributes.fileKey();
+            }
+        }
+    }
+
+    private static class PendingChange {
+        private boolean changed = false;
+        private long size = -1;
+        private long modified = -1;
+    }
+}
@@ -0,0 +1,278 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Calculates the sha1 hashes of pack files by streaming them in fixed-size chunks
+ * so that the memory usage does not depend on the size of the pack.
+ */
+public class PackHasher {
+
+    /**
+     * The size of the chunks that files are read in
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+    private static final ThreadLocal<byte[]> ARRAY_BUFFER = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * Hash a file
+     * @param path The path of the file
+     * @return The result containing the hash and timing information
+     * @throws IOException If the file could not be read
+     */
+    public Result hash(Path path) throws IOException {
+        return hash(path, false);
+    }
+
+    /**
+     * Hash the file of a pack and read the formats declared in its pack.mcmeta.
+     * The metadata is read from the central directory while the file is still open
+     * after streaming it so it doesn't need to be read from the disk again.
+     * @param path The path of the pack file
+     * @return The result containing the hash, timing information and the metadata.
+     *         The metadata is <code>null</code> if the file is not a valid pack.
+     * @throws IOException If the file could not be read
+     */
+    public Result hashPack(Path path) throws IOException {
+        return hash(path, true);
+    }
+
+    private Result hash(Path path, boolean readMetadata) throws IOException {
+        long start = System.nanoTime();
+        Hasher hasher = Hashing.sha1().newHasher();
+        long size = 0;
+        PackMetadata metadata = null;
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                size += buffer.remaining();
+                hasher.putBytes(buffer);
+                buffer.clear();
+            }
+            if (readMetadata) {
+                try {
+                    metadata = PackMetadata.read(channel);
+                } catch (IOException e) {
+                    // not a valid pack, the hash is still correct though
+                }
+            }
+        } finally {
+            buffer.clear();
+        }
+        Result result = record(hasher.hash(), size, System.nanoTime() - start);
+        result.metadata = metadata;
+        return result;
+    }
+
+    /**
+     * Hash the data of an input stream until it ends. Does not close the stream.
+     * @param in The stream to read from
+     * @return The result containing the hash and timing information
+     * @throws IOException If the stream could not be read
+     */
+    public Result hash(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        Hasher hasher = Hashing.sha1().newHasher();
+        long size = 0;
+        byte[] buffer = ARRAY_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            hasher.putBytes(buffer, 0, read);
+            size += read;
+        }
+        return record(hasher.hash(), size, System.nanoTime() - start);
+    }
+
+    /**
+     * Hash the data of an input stream until it ends while writing it to an output stream.
+     * Does not close either of the streams.
+     * @param in  The stream to read from
+     * @param out The stream to copy the data to
+     * @return The result containing the hash and timing information
+     * @throws IOException If the stream could not be read or written
+     */
+    public Result copy(InputStream in, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        Hasher hasher = Hashing.sha1().newHasher();
+        long size = 0;
+        byte[] buffer = ARRAY_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            hasher.putBytes(buffer, 0, read);
+            out.write(buffer, 0, read);
+            size += read;
+        }
+        return record(hasher.hash(), size, System.nanoTime() - start);
+    }
+
+    /**
+     * Calculate a fingerprint of a zip's content that doesn't depend on the order, timestamps
+     * or compression of its entries. It is the sha1 hash of the sorted names of all file entries
+     * together with the sha1 hashes of their uncompressed content.
+     * @param zip The path of the zip file
+     * @return The result containing the content hash and timing information
+     * @throws IOException If the file could not be read or is not a valid zip
+     */
+    public Result hashContent(Path zip) throws IOException {
+        long start = System.nanoTime();
+        Hasher hasher = Hashing.sha1().newHasher();
+        long size = 0;
+        byte[] buffer = ARRAY_BUFFER.get();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            Map<String, ZipEntry> entries = new TreeMap<>();
+            for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), entry);
+                }
+            }
+            for (ZipEntry entry : entries.values()) {
+                Hasher entryHasher = Hashing.sha1().newHasher();
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        entryHasher.putBytes(buffer, 0, read);
+                        size += read;
+                    }
+                }
+                hasher.putString(entry.getName(), StandardCharsets.UTF_8);
+                hasher.putByte((byte) 0);
+                hasher.putBytes(entryHasher.hash().asBytes());
+            }
+        }
+        return record(hasher.hash(), size, System.nanoTime() - start);
+    }
+
+    private Result record(HashCode hash, long size, long nanos) {
+        totalBytes.addAndGet(size);
+        totalNanos.addAndGet(nanos);
+        return new Result(hash, size, nanos);
+    }
+
+    /**
+     * Get the amount of bytes that this hasher processed since it was created
+     * @return The amount of bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Get the average throughput of this hasher since it was created
+     * @return The average amount of bytes hashed per second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond(totalBytes.get(), totalNanos.get());
+    }
+
+    private static long bytesPerSecond(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+    }
+
+    /**
+     * The result of hashing some data
+     */
+    public static class Result {
+        private final HashCode hash;
+        private final long size;
+        private final long nanos;
+        private PackMetadata metadata = null;
+
+        private Result(HashCode hash, long size, long nanos) {
+            this.hash = hash;
+            this.size = size;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Get the sha1 hash of the data
+         * @return The hash
+         */
+        public HashCode getHash() {
+            return hash;
+        }
+
+        /**
+         * Get the amount of bytes that were hashed
+         * @return The amount of bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get how long hashing the data took
+         * @return The duration in milliseconds
+         */
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * Get how fast the data was hashed
+         * @return The amount of bytes hashed per second
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond(size, nanos);
+        }
+
+        /**
+         * Get the metadata of the pack if it was read while hashing
+         * @return The metadata or <code>null</code> if it wasn't read or the file is not a valid pack
+         */
+        public PackMetadata getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public String toString() {
+            return hash + " (" + size + " bytes in " + getMillis() + "ms, " + (getBytesPerSecond() / (1024 * 1024)) + " MiB/s)";
+        }
+    }
+}
@@ -18,11 +18,10 @@ package de.themoep.resourcepacksplugin.core;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
-import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.net.UrlEscapers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent.Status;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
@@ -34,35 +33,43 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.ClosedWatchServiceException;
-import java.nio.file.FileSystems;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.EnumSet;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
+import java.util.zip.ZipException;
 
 /**
  * Created by Phoenix616 on 25.03.2015.
@@ -73,6 +80,11 @@ public class PackManager {
 
     public static final String HASH_KEY = "#hash=";
 
+    /**
+     * How long to wait before trying to merge the same packs again after it failed
+     */
+    private static final long MERGE_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
     private static final String[] URL_DENY_LIST = new String[] {
             "drive.google.com",
             "mediafire.com"
@@ -84,49 +96,93 @@ public class PackManager {
 
     private final ResourcepacksPlugin plugin;
 
-    private WatchService watchService = null;
+    private final PackHasher hasher = new PackHasher();
+    private final PackScanner scanner = new PackScanner();
+
+    private HashIndex hashIndex = null;
+    private PackCache packCache = null;
+    private boolean cacheRemotePacks = false;
+    private final PackOptimizer optimizer;
+    private boolean optimizeLocalPacks = false;
+    private AssetOptimizer assetOptimizer = null;
+    private boolean mergePacks = false;
 
-    private Multimap<WatchKey, BiConsumer<Path, WatchEvent.Kind<Path>>> fileWatchers;
+    private final PackFileWatcher fileWatcher;
+    private final RemotePackRefresher remotePackRefresher;
+    private final MirrorHealthChecker mirrorHealthChecker;
+    private final PermissionCache permissionCache;
 
     /**
-     * packname -> ResourcePack
+     * The published packs, replaced as a whole whenever they change
      */
-    private Map<String, ResourcePack> packNames;
+    private volatile PackRegistry registry = PackRegistry.EMPTY;
 
     /**
-     * packuuid -> packname
+     * The packs that are being loaded since {@link #init()}, only visible to the loading thread until they are published
      */
-    private Map<UUID, ResourcePack> packUuids;
+    private volatile PackRegistry pendingRegistry = null;
+
+    private volatile Thread loadingThread = null;
 
     /**
-     * packhash -> packname
+     * file -> watchers of the packs that are being loaded, they replace the current watchers once the packs are published
      */
-    private Map<String, ResourcePack> packHashes;
-    
+    private Map<Path, List<Consumer<Path>>> pendingWatchers = null;
+
     /**
-     * packurl -> packname 
+     * absolute path -> scan of a local pack file while loading its pack, used instead of scanning it again when hashing it
      */
-    private Map<String, ResourcePack> packUrls;
+    private final Map<String, ScannedFile> scannedFiles = new ConcurrentHashMap<>();
 
     /**
-     * The empty pack, null if none is set
+     * pack name -> pack that was merged from multiple packs for clients that only support one pack
      */
-    private ResourcePack empty = null;
-    
+    private final Map<String, ResourcePack> mergedPacks = new ConcurrentHashMap<>();
+
     /**
-     * Name of the global pack, null if none is set
+     * merge key -> build of the merged pack that is currently in progress
      */
-    private PackAssignment global = new PackAssignment("global");
-    
+    private final Map<String, CompletableFuture<ResourcePack>> mergeBuilds = new ConcurrentHashMap<>();
+
+    /**
+     * merge key -> time in millis until which the packs aren't tried to be merged again as it failed
+     */
+    private final Map<String, Long> mergeFailures = new ConcurrentHashMap<>();
+
+    /**
+     * The published empty pack and assignments, replaced as a whole together with the registry
+     */
+    private volatile AssignmentState assignments = new AssignmentState();
+
+    /**
+     * The empty pack and assignments that are being loaded since {@link #init()}, published together with the packs
+     */
+    private volatile AssignmentState pendingAssignments = null;
+
+    /**
+     * server-/worldname -> resolved literal, regex or empty assignment
+     */
+    private final Map<String, PackAssignment> resolvedAssignments = new ConcurrentHashMap<>();
+
     /**
-     * server-/worldname -> pack assignment
+     * Incremented whenever the assignments change so that resolutions which ran concurrently aren't cached
      */
-    private Map<String, PackAssignment> literalAssignments;
+    private final AtomicLong assignmentsVersion = new AtomicLong();
 
     /**
-     * server-/worldname -> pack assignment
+     * playerid -> last decision of the packs that the player should have
      */
-    private Map<String, PackAssignment> regexAssignments;
+    private final Map<UUID, PackDecision> packDecisions = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever something changed that pack decisions depend on but which isn't part of them
+     */
+    private final AtomicLong decisionsVersion = new AtomicLong();
+
+    /**
+     * The assignment of servers/worlds that don't have one. Shared and read-only, see {@link PackAssignment#isReadOnly()}.
+     */
+    private static final PackAssignment EMPTY_ASSIGNMENT = PackAssignment.readOnly("empty");
 
     /**
      * Whether or not to save the config on the next modification of the manager state
@@ -134,80 +190,286 @@ public class PackManager {
     private boolean dirty = false;
     private boolean storedPacksOverride;
     private boolean appendHashToUrl = true;
+    private int hashGenerationParallelism = 4;
+    private volatile String localPackBaseUrl = null;
+
+    /**
+     * The base url for locally hosted packs that was set since {@link #init()}, published together with the packs
+     */
+    private volatile String pendingLocalPackBaseUrl = null;
 
 
     public PackManager(ResourcepacksPlugin plugin) {
         this.plugin = plugin;
-        try {
-            watchService = FileSystems.getDefault().newWatchService();
-        } catch (IOException e) {
-            plugin.log(Level.WARNING, "Unable to create file watcher!", e);
-        }
+        this.fileWatcher = new PackFileWatcher(plugin);
+        this.remotePackRefresher = new RemotePackRefresher(plugin);
+        this.mirrorHealthChecker = new MirrorHealthChecker(plugin);
+        this.permissionCache = new PermissionCache(plugin);
+        this.optimizer = new PackOptimizer(plugin, hasher);
     }
 
     /**
-     * Initialize this pack manager
+     * Initialize this pack manager and start loading new packs. Packs need to be new instances as the published
+     * ones stay in use (and can still be changed) until the new ones replace them in {@link #publishPacks()}.
      */
     public void init() {
-        packNames = new LinkedHashMap<>();
-        packUuids = new HashMap<>();
-        packHashes = new HashMap<>();
-        packUrls = new HashMap<>();
-        empty = null;
-        global = new PackAssignment("global");
-        literalAssignments = new LinkedHashMap<>();
-        regexAssignments = new LinkedHashMap<>();
-        fileWatchers = MultimapBuilder.hashKeys().linkedListValues().build();
-        plugin.runAsyncTask(() -> {
-            while (true) {
-                try {
-                    WatchKey key = watchService.take();
-                    for (WatchEvent<?> event : key.pollEvents()) {
-                        Collection<BiConsumer<Path, WatchEvent.Kind<Path>>> watchers = fileWatchers.get(key);
-                        plugin.logDebug("Received file change event " + event.kind() + " of " + event.context() + " with " + watchers.size() + " watchers!");
-                        WatchEvent<Path> watchEvent = (WatchEvent<Path>) event;
-                        for (BiConsumer<Path, WatchEvent.Kind<Path>> watcher : watchers) {
-                            watcher.accept(watchEvent.context(), watchEvent.kind());
-                        }
+        if (hashIndex == null) {
+            hashIndex = new HashIndex(plugin, new File(plugin.getDataFolder(), "hash-index.dat").toPath());
+            hashIndex.load();
+        }
+        if (packCache == null) {
+            packCache = new PackCache(plugin, new File(plugin.getDataFolder(), "pack-cache").toPath(), hasher, hash -> {
+                PackRegistry pending = pendingRegistry;
+                if (registry.getByHash(hash) != null || pending != null && pending.getByHash(hash) != null) {
+                    return true;
+                }
+                for (ResourcePack merged : mergedPacks.values()) {
+                    if (merged.getHash().equals(hash)) {
+                        return true;
                     }
-                    key.reset();
-                } catch (InterruptedException | ClosedWatchServiceException ignored) {
-                    // just end the thread
-                    return;
                 }
+                return false;
+            });
+            packCache.load();
+        }
+        if (assetOptimizer == null) {
+            assetOptimizer = new AssetOptimizer(plugin, new File(plugin.getDataFolder(), "asset-cache").toPath());
+        }
+        synchronized (this) {
+            pendingRegistry = registry.toBuilder().clear().build();
+            pendingAssignments = new AssignmentState();
+            pendingLocalPackBaseUrl = localPackBaseUrl;
+            loadingThread = Thread.currentThread();
+            pendingWatchers = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Publish the packs, the empty pack and the assignments that were set since {@link #init()}
+     * so that they replace the previous ones in one step.
+     * Until then only the thread that called {@link #init()} sees them.
+     */
+    public void publishPacks() {
+        Map<Path, List<Consumer<Path>>> watchers;
+        synchronized (this) {
+            if (pendingRegistry == null) {
+                return;
+            }
+            registry = pendingRegistry;
+            assignments = pendingAssignments;
+            localPackBaseUrl = pendingLocalPackBaseUrl;
+            watchers = pendingWatchers;
+            pendingRegistry = null;
+            pendingAssignments = null;
+            pendingWatchers = null;
+            loadingThread = null;
+            mergedPacks.clear();
+            mergeFailures.clear();
+            invalidateAssignments();
+        }
+        fileWatcher.replace(watchers);
+        scannedFiles.clear();
+        if (hashIndex != null) {
+            pruneHashIndex(registry);
+            hashIndex.saveIfDirty();
+        }
+    }
+
+    /**
+     * Remove everything from the hash index that isn't needed for the registered packs anymore
+     * @param registry The registry with all packs
+     */
+    private void pruneHashIndex(PackRegistry registry) {
+        Set<String> names = new HashSet<>();
+        Set<String> files = new HashSet<>();
+        Set<String> urls = new HashSet<>();
+        for (ResourcePack pack : registry.getPacks()) {
+            names.add(pack.getName().toLowerCase(Locale.ROOT));
+            collectSources(pack, files, urls);
+        }
+        // content and metadata are stored by the hash of the source file or of the published version
+        Set<String> hashes = hashIndex.getHashes();
+        for (String name : names) {
+            String published = hashIndex.getArtifact("published:" + name);
+            if (published != null) {
+                hashes.add(published);
+            }
+        }
+        hashIndex.prune(files::contains, urls::contains, (key, hash) -> {
+            int index = key.indexOf(':');
+            String source = key.substring(index + 1);
+            switch (key.substring(0, index + 1)) {
+                case "published:":
+                    return names.contains(source);
+                case "content:":
+                case "pack-metadata:":
+                    return hashes.contains(source);
+                case "optimized:":
+                case "optimized-assets:":
+                case "merged:":
+                    // optimized and merged packs that were evicted from the cache need to be built again anyways
+                    return packCache != null && packCache.contains(hash);
+                default:
+                    return false;
             }
         });
     }
 
-    private void registerFileWatcher(Path path, Consumer<Path> consumer) {
-        // Execute consumer at least once on registration
-        consumer.accept(path);
-        if (watchService == null) {
-            // No watch service
-            return;
+    private void collectSources(ResourcePack pack, Set<String> files, Set<String> urls) {
+        if (pack.getLocalPath() != null && !pack.getLocalPath().isEmpty()) {
+            files.add(HashIndex.key(Paths.get(pack.getLocalPath())));
+        }
+        if (pack.getUrl() != null && !pack.getUrl().isEmpty()) {
+            urls.add(pack.getUrl());
+        }
+        urls.addAll(pack.getMirrors());
+        for (ResourcePack variant : pack.getVariants()) {
+            collectSources(variant, files, urls);
+        }
+    }
+
+    /**
+     * Throw away everything that was loaded since {@link #init()} and keep the previously published state.
+     * Does nothing if it was already published.
+     */
+    public void discardPendingPacks() {
+        synchronized (this) {
+            pendingRegistry = null;
+            pendingAssignments = null;
+            pendingWatchers = null;
+            loadingThread = null;
+        }
+        scannedFiles.clear();
+    }
+
+    /**
+     * Get the currently published snapshot of all packs
+     * @return The pack registry
+     */
+    public PackRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Get the registry that the current thread should see
+     */
+    private PackRegistry registry() {
+        PackRegistry pending = pendingRegistry;
+        if (pending != null && loadingThread == Thread.currentThread()) {
+            return pending;
         }
+        return registry;
+    }
 
-        Path dir = path;
-        if (!Files.isDirectory(dir)) {
-            dir = path.toAbsolutePath().getParent();
+    /**
+     * Get the empty pack and assignments that the current thread should see
+     */
+    private AssignmentState assignments() {
+        AssignmentState pending = pendingAssignments;
+        if (pending != null && loadingThread == Thread.currentThread()) {
+            return pending;
         }
-        try {
-            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
-            fileWatchers.put(key, (p, k) -> {
-                // Check if it's our file
-                if (path.getFileName().equals(p.getFileName())) {
-                    consumer.accept(path);
-                }
-            });
-        } catch (IOException e) {
-            try {
-                watchService.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        return assignments;
+    }
+
+    /**
+     * Apply a change to a copy of the registry and publish it, or store it as pending if the current thread is loading packs.
+     * Only the lookup tables are copied, changes to the packs themselves are visible to older snapshots too.
+     * @param update The change to apply
+     * @return The result of the change
+     */
+    private synchronized <T> T updateRegistry(Function<PackRegistry.Builder, T> update) {
+        boolean pending = pendingRegistry != null && loadingThread == Thread.currentThread();
+        PackRegistry.Builder builder = (pending ? pendingRegistry : registry).toBuilder();
+        T result = update.apply(builder);
+        if (pending) {
+            pendingRegistry = builder.build();
+        } else {
+            registry = builder.build();
+        }
+        return result;
+    }
+
+    /**
+     * Apply a change to a pack and a copy of the registry that the pack belongs to, no matter which thread changes it.
+     * Changes to published packs while others are loaded only update the published registry, changes to packs
+     * that are in no registry (e.g. not added yet or discarded after loading) only change the pack itself.
+     * @param pack      The pack that gets changed, for variants this can be their parent pack
+     * @param update    The change to apply
+     * @return The result of the change
+     */
+    private synchronized <T> T updatePack(ResourcePack pack, Function<PackRegistry.Builder, T> update) {
+        T result;
+        if (pendingRegistry != null && pendingRegistry.contains(pack)) {
+            PackRegistry.Builder builder = pendingRegistry.toBuilder();
+            result = update.apply(builder);
+            pendingRegistry = builder.build();
+        } else if (registry.contains(pack)) {
+            PackRegistry.Builder builder = registry.toBuilder();
+            result = update.apply(builder);
+            registry = builder.build();
+        } else {
+            result = update.apply(PackRegistry.EMPTY.toBuilder());
+        }
+        return result;
+    }
+
+    /**
+     * Get the watcher that detects changes to the local files of packs
+     * @return The file watcher
+     */
+    public PackFileWatcher getFileWatcher() {
+        return fileWatcher;
+    }
+
+    /**
+     * Get the refresher that periodically checks remote packs for changes
+     * @return The remote pack refresher
+     */
+    public RemotePackRefresher getRemotePackRefresher() {
+        return remotePackRefresher;
+    }
+
+    /**
+     * Get the checker that selects the mirror that packs are downloaded from
+     * @return The mirror health checker
+     */
+    public MirrorHealthChecker getMirrorHealthChecker() {
+        return mirrorHealthChecker;
+    }
+
+    /**
+     * Get the cache of the permissions that players have for restricted packs
+     * @return The permission cache
+     */
+    public PermissionCache getPermissionCache() {
+        return permissionCache;
+    }
+
+    /**
+     * Stop all background tasks of this pack manager
+     */
+    public void close() {
+        if (hashIndex != null) {
+            hashIndex.close();
+        }
+        fileWatcher.close();
+        remotePackRefresher.close();
+        mirrorHealthChecker.close();
+        optimizer.close();
+    }
+
+    private void registerFileWatcher(Path path, Consumer<Path> consumer) {
+        // Execute consumer at least once on registration
+        consumer.accept(path);
+        synchronized (this) {
+            if (pendingWatchers != null && loadingThread == Thread.currentThread()) {
+                // the current watchers stay active until the packs get published
+                pendingWatchers.computeIfAbsent(path, p -> new ArrayList<>()).add(consumer);
+                return;
             }
-            watchService = null;
-            plugin.log(Level.WARNING, "Unable to register file watcher. Falling back to manual calculation!", e);
         }
+        fileWatcher.register(path, consumer);
     }
 
     private void registerPackHashWatcher(ResourcePack pack) {
@@ -217,10 +479,14 @@ public class PackManager {
         Path path = Paths.get(pack.getLocalPath());
         registerFileWatcher(path, p -> {
             try {
-                if (Files.isRegularFile(p)) {
-                    byte[] bytes = Files.readAllBytes(p);
-                    HashCode hash = Hashing.sha1().hashBytes(bytes);
-                    setPackHash(pack, hash.toString());
+                if (Files.isRegularFile(p) && scanLocalPack(pack, p) && !applyIndexedHash(pack, p)) {
+                    plugin.runAsyncTask(() -> {
+                        try {
+                            hashLocalPack(pack, p);
+                        } catch (IOException e) {
+                            plugin.getPluginLogger().log(Level.WARNING, "Unable to create hash of " + path, e);
+                        }
+                    });
                 }
             } catch (IOException e) {
                 plugin.getPluginLogger().log(Level.WARNING, "Unable to create hash of " + path, e);
@@ -228,6 +494,428 @@ public class PackManager {
         });
     }
 
+    /**
+     * Check the structure and size of a pack's local file before its hash is used
+     * @param pack The pack
+     * @param path The path to the local file of the pack
+     * @return Whether the file passed the check
+     * @throws IOException If the file could not be read
+     */
+    private boolean scanLocalPack(ResourcePack pack, Path path) throws IOException {
+        PackScanner.Report report = null;
+        ScannedFile scanned = scannedFiles.remove(HashIndex.key(path));
+        if (scanned != null && scanned.matches(HashIndex.readAttributes(path))) {
+            report = scanned.report;
+        }
+        if (report == null) {
+            report = scanner.scan(path);
+        }
+        for (String warning : report.getWarnings()) {
+            plugin.log(Level.WARNING, "Local file of pack " + pack.getName() + ": " + warning);
+        }
+        if (!report.isValid()) {
+            plugin.log(Level.SEVERE, "Local file " + path + " of pack " + pack.getName() + " will not be used: "
+                    + String.join(", ", report.getErrors()));
+            return false;
+        }
+        plugin.logDebug("Scanned local file of pack " + pack.getName() + ": " + report);
+        return true;
+    }
+
+    /**
+     * Set the hash of a pack from the hash index if its local file didn't change since it was last hashed
+     * @param pack The pack
+     * @param path The path to the local file of the pack
+     * @return Whether the hash index contained an up-to-date hash of the file
+     * @throws IOException If the file attributes could not be read
+     */
+    private boolean applyIndexedHash(ResourcePack pack, Path path) throws IOException {
+        if (hashIndex == null) {
+            return false;
+        }
+        BasicFileAttributes attributes = HashIndex.readAttributes(path);
+        if (attributes == null) {
+            return false;
+        }
+        String hash = hashIndex.getHash(path, attributes);
+        if (hash == null) {
+            return false;
+        }
+        applyMetadata(pack, path, hash, null);
+        String publishedHash = getPublishedHash(pack, hash);
+        if (publishedHash == null) {
+            return false;
+        }
+        plugin.logDebug("Using indexed hash " + publishedHash + " of unchanged local file of pack " + pack.getName());
+        setPackHash(pack, publishedHash);
+        return true;
+    }
+
+    /**
+     * Set the format and supported format range of a pack to the ones declared in the pack.mcmeta of its local file
+     * @param pack          The pack
+     * @param path          The path to the local file of the pack
+     * @param sourceHash    The hash of the local file
+     * @param metadata      The metadata if it was already read while hashing, <code>null</code> to look it up in
+     *                      the hash index or read it from the file's central directory
+     */
+    private void applyMetadata(ResourcePack pack, Path path, String sourceHash, PackMetadata metadata) {
+        String key = "pack-metadata:" + sourceHash;
+        if (metadata == null && hashIndex != null) {
+            String indexed = hashIndex.getArtifact(key);
+            if (indexed != null) {
+                metadata = PackMetadata.fromString(indexed);
+            }
+        }
+        if (metadata == null) {
+            try {
+                metadata = PackMetadata.read(path);
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to read the pack.mcmeta of pack " + pack.getName() + ": " + e.getMessage());
+                metadata = PackMetadata.NONE;
+            }
+        }
+        if (hashIndex != null) {
+            hashIndex.putArtifact(key, metadata.toString());
+        }
+        if (metadata.getFormat() <= 0) {
+            return;
+        }
+        if (pack.getFormat() > 0 && pack.getFormat() != metadata.getFormat()) {
+            plugin.log(Level.INFO, "Pack " + pack.getName() + " declares format " + metadata.getFormat()
+                    + " in its pack.mcmeta but " + pack.getFormat() + " was configured. Using the declared one!");
+        }
+        PackMetadata declared = metadata;
+        if (pack.getFormat() != declared.getFormat() || pack.getMinFormat() != declared.getMinFormat()
+                || pack.getMaxFormat() != declared.getMaxFormat()) {
+            updatePack(pack, registry -> {
+                // publish a new snapshot so that nothing uses variants selected for the previous formats
+                pack.setFormat(declared.getFormat());
+                pack.setSupportedFormats(declared.getMinFormat(), declared.getMaxFormat());
+                return true;
+            });
+        }
+        if (metadata.getMaxFormat() > 0) {
+            plugin.logDebug("Pack " + pack.getName() + " supports formats " + metadata.getMinFormat() + " to " + metadata.getMaxFormat());
+        }
+    }
+
+    /**
+     * Calculate the hash of a pack's local file and set it as the pack's hash.
+     * If the pack is hosted by the built-in web server then the hash of the published
+     * (and potentially optimized) version is used instead.
+     * @param pack The pack
+     * @param path The path to the local file of the pack
+     * @throws IOException If the file could not be read
+     */
+    private void hashLocalPack(ResourcePack pack, Path path) throws IOException {
+        BasicFileAttributes attributes = HashIndex.readAttributes(path);
+        String hash = hashIndex != null && attributes != null ? hashIndex.getHash(path, attributes) : null;
+        PackMetadata metadata = null;
+        if (hash == null) {
+            PackHasher.Result result = hasher.hashPack(path);
+            plugin.logDebug("Hashed local file of pack " + pack.getName() + ": " + result);
+            hash = result.getHash().toString();
+            metadata = result.getMetadata();
+            if (hashIndex != null && attributes != null) {
+                hashIndex.putHash(path, attributes, hash);
+            }
+        }
+        applyMetadata(pack, path, hash, metadata);
+        String publishedHash = getPublishedHash(pack, hash);
+        if (publishedHash == null) {
+            publishedHash = shouldOptimize(pack) ? optimizeLocalPack(pack, path, hash) : publishLocalPack(pack, path, hash);
+        }
+        setPackHash(pack, publishedHash != null ? publishedHash : hash);
+    }
+
+    /**
+     * Get the hash of the version of a local file that should be sent to players without doing any expensive work
+     * @param pack          The pack
+     * @param sourceHash    The hash of the pack's local file
+     * @return The hash that should be sent or null if the local file needs to be optimized or published first
+     */
+    private String getPublishedHash(ResourcePack pack, String sourceHash) {
+        if (shouldOptimize(pack)) {
+            // optimized packs are deterministic so a re-zipped pack results in the same hash anyway
+            return getOptimizedHash(sourceHash);
+        }
+        if (!shouldPublish(pack)) {
+            return sourceHash;
+        }
+        String contentHash = hashIndex.getArtifact("content:" + sourceHash);
+        if (contentHash == null) {
+            return null;
+        }
+        pack.setContentHash(contentHash);
+        String previousHash = hashIndex.getArtifact("published:" + pack.getName().toLowerCase(Locale.ROOT));
+        if (previousHash != null && !previousHash.equals(sourceHash) && packCache.contains(previousHash)
+                && contentHash.equals(hashIndex.getArtifact("content:" + previousHash))) {
+            return previousHash;
+        }
+        return packCache.contains(sourceHash) ? sourceHash : null;
+    }
+
+    /**
+     * Check whether the local file of a pack is served by the built-in web server from the pack cache.
+     * The files are copied into the cache so that the previous version can still be served if
+     * a new file only differs in how it was zipped.
+     * @param pack The pack
+     * @return Whether the local file should be published to the pack cache
+     */
+    private boolean shouldPublish(ResourcePack pack) {
+        return packCache != null && hashIndex != null && localPackBaseUrl() != null
+                && (pack.getUrl() == null || pack.getUrl().isEmpty());
+    }
+
+    /**
+     * Copy the local file of a pack into the pack cache unless its content is identical to the previously published version
+     * @param pack          The pack
+     * @param path          The path to the local file of the pack
+     * @param sourceHash    The hash of the local file
+     * @return The hash of the version that should be sent or null if the file could not be published
+     */
+    private String publishLocalPack(ResourcePack pack, Path path, String sourceHash) {
+        String publishedKey = "published:" + pack.getName().toLowerCase(Locale.ROOT);
+        try {
+            PackHasher.Result content = hasher.hashContent(path);
+            String contentHash = content.getHash().toString();
+            hashIndex.putArtifact("content:" + sourceHash, contentHash);
+            pack.setContentHash(contentHash);
+
+            String previousHash = hashIndex.getArtifact(publishedKey);
+            if (previousHash != null && !previousHash.equals(sourceHash) && packCache.contains(previousHash)
+                    && contentHash.equals(hashIndex.getArtifact("content:" + previousHash))) {
+                plugin.logDebug("Only the zip container of pack " + pack.getName() + " changed, keeping published version " + previousHash);
+                return previousHash;
+            }
+
+            PackHasher.Result result;
+            try (InputStream in = Files.newInputStream(path)) {
+                result = packCache.store(in);
+            }
+            String publishedHash = result.getHash().toString();
+            if (!publishedHash.equals(sourceHash)) {
+                // the file changed while we were working on it, the watcher will pick up the new version
+                plugin.logDebug("Local file of pack " + pack.getName() + " changed while publishing it");
+                hashIndex.putArtifact("content:" + publishedHash, contentHash);
+            }
+            hashIndex.putArtifact(publishedKey, publishedHash);
+            plugin.logDebug("Published local file of pack " + pack.getName() + " with content hash " + contentHash);
+            return publishedHash;
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to publish local file of pack " + pack.getName() + ", serving it directly!", e);
+            return null;
+        }
+    }
+
+    private boolean shouldOptimize(ResourcePack pack) {
+        return optimizeLocalPacks && packCache != null && localPackBaseUrl() != null
+                && (pack.getUrl() == null || pack.getUrl().isEmpty());
+    }
+
+    /**
+     * Get the hash of the optimized version of a pack file if it was already built
+     * @param sourceHash The hash of the original pack file
+     * @return The hash of the optimized version or null if there is none in the cache
+     */
+    private String getOptimizedHash(String sourceHash) {
+        String optimizedHash = hashIndex != null ? hashIndex.getArtifact(getOptimizedKey(sourceHash)) : null;
+        return optimizedHash != null && packCache.contains(optimizedHash) ? optimizedHash : null;
+    }
+
+    /**
+     * Build the optimized version of a pack file and store it in the pack cache
+     * @param pack          The pack
+     * @param path          The path to the local file of the pack
+     * @param sourceHash    The hash of the local file
+     * @return The hash of the optimized version or null if it could not be optimized
+     */
+    private String optimizeLocalPack(ResourcePack pack, Path path, String sourceHash) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(plugin.getName() + "-optimize-", ".zip");
+            PackOptimizer.Result result = optimizer.optimize(path, temp);
+            String optimizedHash = result.getHash().getHash().toString();
+            packCache.store(temp, optimizedHash);
+            if (hashIndex != null) {
+                hashIndex.putArtifact(getOptimizedKey(sourceHash), optimizedHash);
+            }
+            plugin.log(Level.INFO, "Optimized pack " + pack.getName() + ": " + result);
+            if (optimizer.getAssetOptimizer() != null) {
+                plugin.logDebug("Optimized " + optimizer.getAssetOptimizer().getAndResetProcessed() + " assets of pack " + pack.getName()
+                        + ", " + optimizer.getAssetOptimizer().getAndResetCacheHits() + " were cached");
+                optimizer.getAssetOptimizer().evict();
+            }
+            return optimizedHash;
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Unable to optimize pack " + pack.getName() + ", sending it unchanged!", e);
+            return null;
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private String getOptimizedKey(String sourceHash) {
+        return (optimizer.getAssetOptimizer() != null ? "optimized-assets:" : "optimized:") + sourceHash;
+    }
+
+    /**
+     * Set whether the PNG and JSON assets inside of optimized local packs should be optimized too
+     * @param optimizeAssets Whether to optimize assets
+     */
+    public void setOptimizeAssets(boolean optimizeAssets) {
+        optimizer.setAssetOptimizer(optimizeAssets ? assetOptimizer : null);
+    }
+
+    /**
+     * Get the optimizer for the assets inside of optimized local packs
+     * @return The asset optimizer
+     */
+    public AssetOptimizer getAssetOptimizer() {
+        return assetOptimizer;
+    }
+
+    /**
+     * Get a pack that contains all packs that should be applied to a player merged into one.
+     * Entries of later packs override the ones of earlier packs. The merged pack is built
+     * once for every combination of pack versions and stored in the pack cache.
+     * @param playerId  The UUID of the player to merge the packs for
+     * @param packs     The packs to merge, in the order in which they would be applied
+     * @return A future for the merged pack, completes with null if the packs could not be merged,
+     *         e.g. because one of them is not available locally or merging them failed recently
+     */
+    public CompletableFuture<ResourcePack> getMergedPack(UUID playerId, Collection<ResourcePack> packs) {
+        if (packCache == null || localPackBaseUrl() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Path> files = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        for (ResourcePack pack : packs) {
+            ResourcePack variant = getMatchingVariant(playerId, pack).getPack();
+            if (variant == null || variant.getRawHash().length == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            Path file = packCache.get(variant.getHash());
+            if (file == null) {
+                if (variant.getLocalPath() == null || variant.getLocalPath().isEmpty()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                file = Paths.get(variant.getLocalPath());
+            }
+            files.add(file);
+            hashes.add(variant.getHash());
+        }
+
+        String key = Hashing.sha1().hashString(String.join(",", hashes), StandardCharsets.UTF_8).toString();
+        String name = "merged-" + key;
+        ResourcePack merged = mergedPacks.get(name);
+        if (merged != null && packCache.contains(merged.getHash())) {
+            return CompletableFuture.completedFuture(merged);
+        }
+        String mergedHash = hashIndex != null ? hashIndex.getArtifact("merged:" + key) : null;
+        if (mergedHash != null && packCache.contains(mergedHash)) {
+            return CompletableFuture.completedFuture(registerMergedPack(name, mergedHash, packs));
+        }
+        Long failedUntil = mergeFailures.get(key);
+        if (failedUntil != null) {
+            if (System.currentTimeMillis() < failedUntil) {
+                return CompletableFuture.completedFuture(null);
+            }
+            mergeFailures.remove(key, failedUntil);
+        }
+
+        CompletableFuture<ResourcePack> build = mergeBuilds.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+            Path temp = null;
+            try {
+                temp = Files.createTempFile(plugin.getName() + "-merge-", ".zip");
+                PackOptimizer.Result result = optimizer.merge(files, temp);
+                String hash = result.getHash().getHash().toString();
+                packCache.store(temp, hash);
+                if (hashIndex != null) {
+                    hashIndex.putArtifact("merged:" + key, hash);
+                }
+                plugin.logDebug("Merged packs " + packs.stream().map(ResourcePack::getName).collect(Collectors.joining(", ")) + ": " + result);
+                return registerMergedPack(name, hash, packs);
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to merge packs " + packs.stream().map(ResourcePack::getName).collect(Collectors.joining(", ")), e);
+                return null;
+            } finally {
+                if (temp != null) {
+                    try {
+                        Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {}
+                }
+            }
+        }).handle((pack, e) -> {
+            if (e != null) {
+                plugin.log(Level.WARNING, "Error while merging packs " + packs.stream().map(ResourcePack::getName).collect(Collectors.joining(", ")), e);
+            }
+            if (pack == null) {
+                mergeFailures.put(key, System.currentTimeMillis() + MERGE_RETRY_DELAY);
+            }
+            return pack;
+        }));
+        build.whenComplete((pack, e) -> mergeBuilds.remove(key, build));
+        return build;
+    }
+
+    private ResourcePack registerMergedPack(String name, String hash, Collection<ResourcePack> packs) {
+        ResourcePack merged = mergedPacks.get(name);
+        if (merged == null || !merged.getHash().equals(hash)) {
+            ResourcePack first = packs.iterator().next();
+            merged = new ResourcePack(name, UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)), "", hash,
+                    null, first.getFormat(), first.getVersion(), false, "resourcepacksplugin.pack." + name, first.getType());
+            mergedPacks.put(name, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Set whether multiple packs should be merged into one for clients that only support a single pack.
+     * Only packs that are available locally, either by their local-path or in the pack cache, can be merged.
+     * @param mergePacks Whether to merge packs
+     */
+    public void setMergePacks(boolean mergePacks) {
+        this.mergePacks = mergePacks;
+    }
+
+    /**
+     * Set whether the local files of packs that are served by the built-in web server should be optimized
+     * @param optimizeLocalPacks Whether to optimize local packs
+     */
+    public void setOptimizeLocalPacks(boolean optimizeLocalPacks) {
+        this.optimizeLocalPacks = optimizeLocalPacks;
+    }
+
+    /**
+     * Get the optimizer that rewrites the files of local packs
+     * @return The pack optimizer
+     */
+    public PackOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * Get the scanner that checks pack files before they are used
+     * @return The pack scanner
+     */
+    public PackScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * Get the hasher that is used to calculate the hashes of pack files
+     * @return The pack hasher
+     */
+    public PackHasher getHasher() {
+        return hasher;
+    }
+
     /**
      * Creates a new ResourcePack instance from a config. Does not add it!
      * @param name      The name of the pack
@@ -241,20 +929,22 @@ public class PackManager {
         String url = get(config, "url", "");
         validateUrl(url);
         List<?> variantsList = get(config, "variants", new ArrayList<ResourcePack>());
-        if (url.isEmpty() && variantsList.isEmpty()) {
+        String localPath = get(config, "local-path", "");
+        if (url.isEmpty() && variantsList.isEmpty() && localPath.isEmpty()) {
             throw new IllegalArgumentException("Pack " + name + " does not have an url defined!");
         }
+        if (url.isEmpty() && variantsList.isEmpty() && localPackBaseUrl() == null) {
+            throw new IllegalArgumentException("Pack " + name + " only has a local-path but the built-in web server that hosts local packs is not enabled! Enable it in the 'hosting' section or define an url for the pack.");
+        }
         UUID uuid;
         String uuidStr = get(config, "uuid", "");
         if (uuidStr.isEmpty()) {
-            uuid = UUID.nameUUIDFromBytes(url.getBytes());
+            uuid = UUID.nameUUIDFromBytes(url.isEmpty() ? name.getBytes() : url.getBytes());
         } else {
             uuid = UUID.fromString(uuidStr);
         }
         String hash = get(config, "hash", "");
 
-        String localPath = get(config, "local-path", "");
-
         int format = get(config, "format", 0);
         String mcVersion = get(config , "version", String.valueOf(get(config, "version", 0)));
 
@@ -263,7 +953,38 @@ public class PackManager {
 
         ClientType type = ClientType.valueOf(get(config, "type", "original").toUpperCase(Locale.ROOT));
 
+        if (!localPath.isEmpty() && Files.isRegularFile(Paths.get(localPath))) {
+            try {
+                Path path = Paths.get(localPath);
+                BasicFileAttributes attributes = HashIndex.readAttributes(path);
+                PackScanner.Report report = scanner.scan(path);
+                if (attributes != null) {
+                    // reused when the file is hashed after the pack got added
+                    scannedFiles.put(HashIndex.key(path), new ScannedFile(attributes, report));
+                }
+                if (!report.isValid()) {
+                    throw new IllegalArgumentException("Local file " + localPath + " of pack " + name + " failed the check: "
+                            + String.join(", ", report.getErrors()));
+                }
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Unable to check local file " + localPath + " of pack " + name + ": " + e.getMessage());
+            }
+        }
+
         ResourcePack pack = new ResourcePack(name, uuid, url, hash, localPath, format, 0, restricted, perm, type);
+
+        Object mirrorsList = config.get("mirrors");
+        if (mirrorsList instanceof List && !((List<?>) mirrorsList).isEmpty()) {
+            if (url.isEmpty()) {
+                throw new IllegalArgumentException("Pack " + name + " has mirrors but no url defined!");
+            }
+            List<String> mirrors = new ArrayList<>();
+            for (Object mirror : (List<?>) mirrorsList) {
+                validateUrl(String.valueOf(mirror));
+                mirrors.add(String.valueOf(mirror));
+            }
+            pack.setMirrors(mirrors);
+        }
         try {
             pack.setVersion(mcVersion);
         } catch (IllegalArgumentException e) {
@@ -310,14 +1031,33 @@ public class PackManager {
      * @throws IllegalArgumentException when there already is a pack with the same url or hash but not name defined
      */
     public ResourcePack addPack(ResourcePack pack) throws IllegalArgumentException {
+        synchronized (this) {
+            if (pendingRegistry != null && loadingThread == Thread.currentThread() && registry.contains(pack)) {
+                throw new IllegalArgumentException("Pack " + pack.getName() + " is already published, new packs need to be loaded as new instances!");
+            }
+        }
+        ResourcePack previous = updateRegistry(registry -> {
+            if (pack.getVariants().isEmpty()) {
+                cacheVariant(registry, pack, pack);
+            } else {
+                for (ResourcePack variant : pack.getVariants()) {
+                    cacheVariant(registry, variant, pack);
+                }
+            }
+            return registry.names().put(pack.getName().toLowerCase(Locale.ROOT), pack);
+        });
+        registerPackHashWatchers(pack);
+        return previous;
+    }
+
+    private void registerPackHashWatchers(ResourcePack pack) {
         if (pack.getVariants().isEmpty()) {
-            cacheVariant(pack, pack);
+            registerPackHashWatcher(pack);
         } else {
             for (ResourcePack variant : pack.getVariants()) {
-                cacheVariant(variant, pack);
+                registerPackHashWatchers(variant);
             }
         }
-        return packNames.put(pack.getName().toLowerCase(Locale.ROOT), pack);
     }
 
     /**
@@ -326,81 +1066,97 @@ public class PackManager {
      * @return If that pack was known before it returns true, if not false
      */
     public boolean removePack(ResourcePack pack) {
-        boolean known = false;
-        if (pack.getVariants().isEmpty()) {
-            if (pack.getUrl() != null && pack.getUrl().isEmpty()) {
-                known |= packUrls.remove(pack.getUrl(), pack);
-            }
-            if (pack.getUuid() != null) {
-                known |= packUuids.remove(pack.getUuid(), pack);
-            }
-            if (pack.getHash().length() > 0) {
-                known |= packHashes.remove(pack.getHash(), pack);
-            }
-        } else {
-            for (ResourcePack variant : pack.getVariants()) {
-                known |= uncacheVariant(variant, pack);
+        return updateRegistry(registry -> {
+            boolean known = false;
+            if (pack.getVariants().isEmpty()) {
+                if (pack.getUrl() != null && !pack.getUrl().isEmpty()) {
+                    known |= registry.urls().remove(pack.getUrl(), pack);
+                }
+                for (String mirror : pack.getMirrors()) {
+                    registry.urls().remove(mirror, pack);
+                }
+                if (pack.getUuid() != null) {
+                    known |= registry.uuids().remove(pack.getUuid(), pack);
+                }
+                if (pack.getHash().length() > 0) {
+                    known |= registry.hashes().remove(pack.getHash(), pack);
+                }
+                registry.hosted().remove(getNamedPath(pack), pack);
+            } else {
+                for (ResourcePack variant : pack.getVariants()) {
+                    known |= uncacheVariant(registry, variant, pack);
+                }
             }
-        }
-        return packNames.remove(pack.getName().toLowerCase(Locale.ROOT), pack) || known;
+            return registry.names().remove(pack.getName().toLowerCase(Locale.ROOT), pack) || known;
+        });
     }
 
-    private void cacheVariant(ResourcePack variant, ResourcePack pack) throws IllegalArgumentException {
+    private void cacheVariant(PackRegistry.Builder registry, ResourcePack variant, ResourcePack pack) throws IllegalArgumentException {
         if (variant.getVariants().isEmpty()) {
             try {
-                ensureUniqueData(variant, pack.getName());
+                ensureUniqueData(registry, variant, pack.getName());
                 if (variant.getUrl() != null && !variant.getUrl().isEmpty()) {
-                    packUrls.putIfAbsent(variant.getUrl(), pack);
+                    registry.urls().putIfAbsent(variant.getUrl(), pack);
+                }
+                for (String mirror : variant.getMirrors()) {
+                    registry.urls().putIfAbsent(mirror, pack);
                 }
                 if (variant.getHash().length() > 0) {
-                    packHashes.put(variant.getHash(), pack);
+                    registry.hashes().put(variant.getHash(), pack);
                 }
                 if (variant.getUuid() != null) {
-                    packUuids.put(variant.getUuid(), pack);
+                    registry.uuids().put(variant.getUuid(), pack);
+                }
+                if (variant.getLocalPath() != null && !variant.getLocalPath().isEmpty()) {
+                    registry.hosted().put(getNamedPath(variant), variant);
                 }
             } catch (IllegalArgumentException e) {
                 plugin.log(Level.WARNING, e.getMessage() + " This might cause issues in some cases" +
                         " especially when sending packs from a Minecraft server with this plugin on the proxy!");
             }
-            registerPackHashWatcher(variant);
         } else {
             for (ResourcePack variantVariant : variant.getVariants()) {
-                cacheVariant(variantVariant, pack);
+                cacheVariant(registry, variantVariant, pack);
             }
         }
     }
 
     /**
      * Ensures that the pack has unique hash, uuid and url specifications
+     * @param registry  The registry to check in
      * @param pack      The pack to check
      * @param packName  The pack name to check for if it's a different pack
      */
-    private void ensureUniqueData(ResourcePack pack, String packName) {
-        ResourcePack byHash = getByHash(pack.getHash());
+    private void ensureUniqueData(PackRegistry.Builder registry, ResourcePack pack, String packName) {
+        ResourcePack byHash = registry.hashes().get(pack.getHash());
         if (byHash != null && !byHash.getName().equalsIgnoreCase(packName)) {
             throw new IllegalArgumentException("There is already a pack with same hash '" + pack.getHash() + "' as pack '" + packName + "' (" + pack.getName() + ") defined: " + byHash.getName());
         }
-        ResourcePack byUuid = getByUuid(pack.getUuid());
+        ResourcePack byUuid = registry.uuids().get(pack.getUuid());
         if (byUuid != null && !byUuid.getName().equalsIgnoreCase(packName)) {
             throw new IllegalArgumentException("There is already a pack with same uuid '" + pack.getUuid() + "' as pack '" + packName + "' (" + pack.getName() + ") defined: " + byUuid.getName());
         }
         if (pack.getUrl() != null && !pack.getUrl().isEmpty()) {
-            ResourcePack byUrl = getByUrl(pack.getUrl());
+            ResourcePack byUrl = registry.urls().get(pack.getUrl());
             if (byUrl != null && !byUrl.getName().equalsIgnoreCase(packName)) {
                 throw new IllegalArgumentException("There is already a pack with same url '" + pack.getUrl() + "' as pack '" + packName + "' (" + pack.getName() + ") defined: " + byUrl.getName());
             }
         }
     }
 
-    private boolean uncacheVariant(ResourcePack variant, ResourcePack pack) {
+    private boolean uncacheVariant(PackRegistry.Builder registry, ResourcePack variant, ResourcePack pack) {
         boolean known = false;
         if (variant.getVariants().isEmpty()) {
-            known |= packUrls.remove(variant.getUrl(), pack);
-            known |= packHashes.remove(variant.getHash(), pack);
-            known |= packUuids.remove(variant.getUuid(), pack);
+            registry.hosted().remove(getNamedPath(variant), variant);
+            known |= registry.urls().remove(variant.getUrl(), pack);
+            for (String mirror : variant.getMirrors()) {
+                registry.urls().remove(mirror, pack);
+            }
+            known |= registry.hashes().remove(variant.getHash(), pack);
+            known |= registry.uuids().remove(variant.getUuid(), pack);
         } else {
             for (ResourcePack variantVariant : variant.getVariants()) {
-                known |= uncacheVariant(variantVariant, pack);
+                known |= uncacheVariant(registry, variantVariant, pack);
             }
         }
         return known;
@@ -413,13 +1169,15 @@ public class PackManager {
      * @return Whether or not the hash changed
      */
     public boolean setPackUuid(ResourcePack pack, UUID uuid) {
-        if (pack.getUuid().equals(uuid)) {
-            return false;
-        }
-        packUuids.remove(pack.getUuid());
-        pack.setUuid(uuid);
-        packUuids.put(pack.getUuid(), pack);
-        return true;
+        return updatePack(pack, registry -> {
+            if (pack.getUuid().equals(uuid)) {
+                return false;
+            }
+            registry.uuids().remove(pack.getUuid());
+            pack.setUuid(uuid);
+            registry.uuids().put(pack.getUuid(), pack);
+            return true;
+        });
     }
 
     /**
@@ -428,14 +1186,35 @@ public class PackManager {
      * @param hash The new hash to set
      * @return Whether or not the hash changed
      */
-    public boolean setPackHash(ResourcePack pack, String hash) {
+    public synchronized boolean setPackHash(ResourcePack pack, String hash) {
         if (pack.getHash().equals(hash)) {
             return false;
         }
-        packHashes.remove(pack.getHash());
-        pack.setHash(hash);
-        packHashes.put(pack.getHash(), pack);
-        return true;
+        return updatePack(pack, registry -> {
+            registry.hashes().remove(pack.getHash());
+            pack.setHash(hash);
+            registry.hashes().put(pack.getHash(), pack);
+            return true;
+        });
+    }
+
+    /**
+     * Set the raw hash of a pack (variant) to a new value
+     * @param pack          The pack or variant to update
+     * @param hash          The new raw hash
+     * @param packToCache   The pack to cache the hash for, if the pack is a variant then this is its parent
+     * @return Whether or not the hash changed
+     */
+    private synchronized boolean setPackHash(ResourcePack pack, byte[] hash, ResourcePack packToCache) {
+        if (Arrays.equals(pack.getRawHash(), hash)) {
+            return false;
+        }
+        return updatePack(packToCache, registry -> {
+            registry.hashes().remove(pack.getHash());
+            pack.setRawHash(hash);
+            registry.hashes().put(pack.getHash(), packToCache);
+            return true;
+        });
     }
 
     /**
@@ -445,13 +1224,15 @@ public class PackManager {
      * @return Whether or not the url changed
      */
     public boolean setPackUrl(ResourcePack pack, String url) {
-        if (pack.getUrl().equals(url)) {
-            return false;
-        }
-        packUrls.remove(pack.getUrl());
-        pack.setUrl(url);
-        packUrls.put(pack.getUrl(), pack);
-        return true;
+        return updatePack(pack, registry -> {
+            if (pack.getUrl().equals(url)) {
+                return false;
+            }
+            registry.urls().remove(pack.getUrl());
+            pack.setUrl(url);
+            registry.urls().put(pack.getUrl(), pack);
+            return true;
+        });
     }
 
     /**
@@ -463,13 +1244,22 @@ public class PackManager {
     public boolean setPackPath(ResourcePack pack, String path) {
         String oldPath = pack.getLocalPath();
         if (path == null && oldPath != null) {
-            pack.setLocalPath(null);
+            updatePack(pack, registry -> {
+                pack.setLocalPath(null);
+                return registry.hosted().remove(getNamedPath(pack), pack);
+            });
             return true;
         }
-        if (oldPath == null || oldPath.equals(path)) {
+        if (path == null || path.equals(oldPath)) {
             return false;
         }
-        pack.setLocalPath(path);
+        updatePack(pack, registry -> {
+            if (oldPath != null) {
+                registry.hosted().remove(getNamedPath(pack), pack);
+            }
+            pack.setLocalPath(path);
+            return registry.hosted().put(getNamedPath(pack), pack);
+        });
         registerPackHashWatcher(pack);
         return true;
     }
@@ -480,7 +1270,7 @@ public class PackManager {
      * @return The resourcepack with that name, null if there is none
      */
     public ResourcePack getByName(String name) {
-        return name != null ? packNames.get(name.toLowerCase(Locale.ROOT)) : null;
+        return name != null ? registry().getByName(name) : null;
     }
 
     /**
@@ -489,7 +1279,7 @@ public class PackManager {
      * @return The resourcepack with that uuid, null if there is none
      */
     public ResourcePack getByUuid(UUID uuid) {
-        return packUuids.get(uuid);
+        return registry().getByUuid(uuid);
     }
 
     /**
@@ -498,7 +1288,7 @@ public class PackManager {
      * @return The resourcepack with that hash, null if there is none
      */
     public ResourcePack getByHash(String hash) {
-        return packHashes.get(hash);
+        return registry().getByHash(hash);
     }
 
     /**
@@ -507,7 +1297,7 @@ public class PackManager {
      * @return The resourcepack with that hash, null if there is none
      */
     public ResourcePack getByHash(byte[] hash) {
-        return packHashes.get(BaseEncoding.base16().lowerCase().encode(hash));
+        return registry().getByHash(BaseEncoding.base16().lowerCase().encode(hash));
     }
 
     /**
@@ -519,7 +1309,7 @@ public class PackManager {
         if (url.contains(HASH_KEY)) {
             url = url.substring(0, url.lastIndexOf(HASH_KEY));
         }
-        return packUrls.get(url);
+        return registry().getByUrl(url);
     }
 
     /**
@@ -528,8 +1318,9 @@ public class PackManager {
      * @return The previous empty pack, null if none was set
      */
     public ResourcePack setEmptyPack(ResourcePack pack) {
-        ResourcePack rp = getEmptyPack();
-        empty = pack;
+        AssignmentState state = assignments();
+        ResourcePack rp = state.empty;
+        state.empty = pack;
         return rp;
     }
 
@@ -547,7 +1338,7 @@ public class PackManager {
      * @return The empty pack, null if none is set
      */
     public ResourcePack getEmptyPack() {
-        return empty;
+        return assignments().empty;
     }
 
 
@@ -557,6 +1348,7 @@ public class PackManager {
      */
     public void setStoredPacksOverride(boolean playerPacksOverride) {
         this.storedPacksOverride = playerPacksOverride;
+        invalidatePackDecisions();
     }
 
     /**
@@ -572,7 +1364,7 @@ public class PackManager {
      * @return  The global PackAssignment
      */
     public PackAssignment getGlobalAssignment() {
-        return global;
+        return assignments().global;
     }
 
     /**
@@ -580,7 +1372,8 @@ public class PackManager {
      * @param assignment    The PackAssignment that you want to set
      */
     public void setGlobalAssignment(PackAssignment assignment) {
-        this.global = assignment;
+        assignments().global = assignment;
+        invalidatePackDecisions();
     }
 
     /**
@@ -589,12 +1382,14 @@ public class PackManager {
      * @return              The previous assignment or null if there was none
      */
     public PackAssignment addAssignment(PackAssignment assignment) {
+        AssignmentState state = assignments();
         PackAssignment previous;
         if (assignment.getRegex() != null) {
-            previous = regexAssignments.put(assignment.getName().toLowerCase(Locale.ROOT), assignment);
+            previous = state.regex.put(assignment.getName().toLowerCase(Locale.ROOT), assignment);
         } else {
-            previous = literalAssignments.put(assignment.getName().toLowerCase(Locale.ROOT), assignment);
+            previous = state.literal.put(assignment.getName().toLowerCase(Locale.ROOT), assignment);
         }
+        invalidateAssignments();
         checkDirty();
         return previous;
     }
@@ -602,19 +1397,72 @@ public class PackManager {
     /**
      * Get the assignment of a server/world
      * @param server    The name of the server/world
-     * @return          The PackAssignment; an empty one if there is none
+     * @return          The PackAssignment; a shared, read-only empty one if there is none
      */
     public @NonNull PackAssignment getAssignment(String server) {
-        PackAssignment assignment = literalAssignments.get(server.toLowerCase(Locale.ROOT));
+        return getResolvedAssignment(server);
+    }
+
+    /**
+     * Get the assignment of a server/world from the cache, resolving it if it isn't cached yet
+     * @param server    The name of the server/world
+     * @return          The PackAssignment; the shared {@link #EMPTY_ASSIGNMENT} if there is none
+     */
+    private PackAssignment getResolvedAssignment(String server) {
+        AssignmentState state = assignments();
+        if (state != assignments) {
+            // only the loading thread sees these, don't cache them for everyone else
+            return resolveAssignment(state, server);
+        }
+        PackAssignment assignment = resolvedAssignments.get(server);
+        if (assignment != null) {
+            return assignment;
+        }
+        long version = assignmentsVersion.get();
+        assignment = resolveAssignment(state, server);
+        resolvedAssignments.put(server, assignment);
+        if (version != assignmentsVersion.get()) {
+            // assignments changed while resolving, don't keep the potentially outdated result
+            resolvedAssignments.remove(server, assignment);
+        }
+        return assignment;
+    }
+
+    /**
+     * Resolve the assignment of a server/world without the cache. Literal names are looked up directly, regex
+     * assignments are tried one after another in their configured order as the first match wins. The result is
+     * cached per name by {@link #getResolvedAssignment(String)} so this only runs once per name and reload.
+     * @param state The assignments to resolve from
+     * @param server The name of the server/world
+     * @return The assignment or the shared, read-only empty one
+     */
+    private PackAssignment resolveAssignment(AssignmentState state, String server) {
+        PackAssignment assignment = state.literal.get(server.toLowerCase(Locale.ROOT));
         if (assignment != null) {
             return assignment;
         }
-        for (PackAssignment regexAssignment : regexAssignments.values()) {
+        for (PackAssignment regexAssignment : state.regex.values()) {
             if (regexAssignment.getRegex().matcher(server).matches()) {
                 return regexAssignment;
             }
         }
-        return new PackAssignment("empty");
+        return EMPTY_ASSIGNMENT;
+    }
+
+    /**
+     * Resolve and cache the assignments of servers/worlds so that the first lookup doesn't need to do it
+     * @param servers The names of the servers/worlds
+     */
+    public void warmAssignmentCache(Collection<String> servers) {
+        for (String server : servers) {
+            getResolvedAssignment(server);
+        }
+    }
+
+    private void invalidateAssignments() {
+        assignmentsVersion.incrementAndGet();
+        resolvedAssignments.clear();
+        invalidatePackDecisions();
     }
 
     /**
@@ -623,9 +1471,10 @@ public class PackManager {
      * @return      The PackAssignment or null if not found
      */
     public PackAssignment getAssignmentByName(String name) {
-        PackAssignment assignment = literalAssignments.get(name.toLowerCase(Locale.ROOT));
+        AssignmentState state = assignments();
+        PackAssignment assignment = state.literal.get(name.toLowerCase(Locale.ROOT));
         if (assignment == null) {
-            assignment = regexAssignments.get(name.toLowerCase(Locale.ROOT));
+            assignment = state.regex.get(name.toLowerCase(Locale.ROOT));
         }
         return assignment;
     }
@@ -635,8 +1484,9 @@ public class PackManager {
      * @return The all PackAssignments
      */
     public Collection<? extends PackAssignment> getAssignments() {
-        List<PackAssignment> assignments = new ArrayList<>(literalAssignments.values());
-        assignments.addAll(regexAssignments.values());
+        AssignmentState state = assignments();
+        List<PackAssignment> assignments = new ArrayList<>(state.literal.values());
+        assignments.addAll(state.regex.values());
         return assignments;
     }
 
@@ -740,8 +1590,10 @@ public class PackManager {
      * @return True if there was a assignment for that key, false if not
      */
     public boolean removeAssignment(String key) {
-        if (literalAssignments.remove(key.toLowerCase(Locale.ROOT)) != null) {
-            regexAssignments.remove(key.toLowerCase(Locale.ROOT));
+        AssignmentState state = assignments();
+        if (state.literal.remove(key.toLowerCase(Locale.ROOT)) != null) {
+            state.regex.remove(key.toLowerCase(Locale.ROOT));
+            invalidateAssignments();
             checkDirty();
             return true;
         }
@@ -754,12 +1606,14 @@ public class PackManager {
      * @return True if there was a assignment for that key, false if not
      */
     public boolean removeAssignment(PackAssignment assignment) {
+        AssignmentState state = assignments();
         boolean removed;
         if (assignment.getRegex() != null) {
-            removed = regexAssignments.remove(assignment.getName().toLowerCase(Locale.ROOT)) != null;
+            removed = state.regex.remove(assignment.getName().toLowerCase(Locale.ROOT)) != null;
         } else {
-            removed = literalAssignments.remove(assignment.getName().toLowerCase(Locale.ROOT)) != null;
+            removed = state.literal.remove(assignment.getName().toLowerCase(Locale.ROOT)) != null;
         }
+        invalidateAssignments();
         checkDirty();
         return removed;
     }
@@ -811,7 +1665,54 @@ public class PackManager {
      */
     public @NonNull PackSetResult setPack(UUID playerId, ResourcePack pack, boolean temporary, boolean removeExisting) {
         List<ResourcePack> prev = plugin.getUserManager().getUserPacks(playerId);
+        PackSetResult result = preparePack(playerId, pack, temporary, removeExisting, prev);
+        if (result.getStatus() != null) {
+            return result;
+        }
+        return completeSetPack(playerId, plugin.callPackSendEvent(playerId, result.getPack()), prev);
+    }
+
+    /**
+     * Set the pack of a player and send it to him without blocking while the ResourcePackSendEvent is called.
+     * Packs are not stored permanently and existing ones are only removed if the pack is empty.
+     * @param playerId  The UUID of the player to set the pack for
+     * @param pack      The ResourcePack to set, if it is null/empty it will reset to empty if the player has a pack applied
+     * @return A future for the result of setting the pack
+     */
+    public CompletableFuture<PackSetResult> setPackAsync(UUID playerId, ResourcePack pack) {
+        return setPackAsync(playerId, pack, true, pack == null || pack.equals(getEmptyPack()));
+    }
+
+    /**
+     * Set the pack of a player and send it to him without blocking while the ResourcePackSendEvent is called
+     * @param playerId  The UUID of the player to set the pack for
+     * @param pack      The ResourcePack to set
+     * @param temporary Should the pack be removed on log out or stored?
+     * @param removeExisting Should existing packs be removed? (Only works on 1.20.3+, versions before that will always remove)
+     * @return A future for the result of setting the pack
+     */
+    public CompletableFuture<PackSetResult> setPackAsync(UUID playerId, ResourcePack pack, boolean temporary, boolean removeExisting) {
+        List<ResourcePack> prev = plugin.getUserManager().getUserPacks(playerId);
+        PackSetResult result = preparePack(playerId, pack, temporary, removeExisting, prev);
+        if (result.getStatus() != null) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return plugin.callPackSendEventAsync(playerId, result.getPack())
+                .thenApply(sendEvent -> completeSetPack(playerId, sendEvent, prev));
+    }
+
+    /**
+     * Everything that happens when setting a pack before the ResourcePackSendEvent is called
+     * @param playerId  The UUID of the player to set the pack for
+     * @param pack      The ResourcePack to set
+     * @param temporary Should the pack be removed on log out or stored?
+     * @param removeExisting Should existing packs be removed?
+     * @param prev      The packs that the player had before
+     * @return The final result or a result without a status containing the pack to call the send event with
+     */
+    private PackSetResult preparePack(UUID playerId, ResourcePack pack, boolean temporary, boolean removeExisting, List<ResourcePack> prev) {
         if (!temporary) {
+            invalidatePackDecision(playerId);
             if (pack == null) {
                 plugin.setStoredPack(playerId, null);
             } else {
@@ -823,7 +1724,9 @@ public class PackManager {
             ResourcePack stored = getByName(plugin.getStoredPack(playerId));
             if (stored != null && checkPack(playerId, stored, Status.SUCCESS) == Status.SUCCESS) {
                 pack = stored;
-                plugin.logDebug(playerId + " has the pack " + stored.getName() + " stored!");
+                if (plugin.isDebugLoggable()) {
+                    plugin.logDebug(playerId + " has the pack " + stored.getName() + " stored!");
+                }
             }
         }
         if (plugin.supportsMultiplePacks(playerId) && removeExisting) {
@@ -844,12 +1747,24 @@ public class PackManager {
             // TODO: Find way to change client pack for Bedrock players
             return new PackSetResult(null, Status.UNKNOWN);
         }
-        IResourcePackSendEvent sendEvent = plugin.callPackSendEvent(playerId, pack);
+        return new PackSetResult(pack, null);
+    }
+
+    /**
+     * Everything that happens when setting a pack after the ResourcePackSendEvent was called
+     * @param playerId  The UUID of the player to set the pack for
+     * @param sendEvent The called send event
+     * @param prev      The packs that the player had before
+     * @return The result of setting the pack
+     */
+    private PackSetResult completeSetPack(UUID playerId, IResourcePackSendEvent sendEvent, List<ResourcePack> prev) {
         if (sendEvent.isCancelled()) {
-            plugin.logDebug("Pack send event for " + playerId + " was cancelled!");
+            if (plugin.isDebugLoggable()) {
+                plugin.logDebug("Pack send event for " + playerId + " was cancelled!");
+            }
             return new PackSetResult(null, Status.UNKNOWN);
         }
-        pack = processSendEvent(sendEvent, prev);
+        ResourcePack pack = processSendEvent(sendEvent, prev);
         if (pack != null) {
             PackSetResult variant = getMatchingVariant(playerId, pack);
             if (variant.getPack() != null) {
@@ -869,19 +1784,37 @@ public class PackManager {
     private PackSetResult getMatchingVariant(UUID playerId, ResourcePack pack) {
         if (pack.getVariants().isEmpty()) {
             return new PackSetResult(pack, Status.SUCCESS);
-        } else {
-            Status status = Status.SUCCESS;
-            for (ResourcePack variant : pack.getVariants()) {
-                Status varStatus = checkPack(playerId, variant, Status.UNKNOWN);
-                if (varStatus == Status.SUCCESS) {
-                    return new PackSetResult(variant, Status.SUCCESS);
-                }
-                if (varStatus.ordinal() > status.ordinal()) {
-                    status = varStatus;
-                }
+        }
+        ResourcePack variant = getEligibleVariant(playerId, pack);
+        if (variant != null) {
+            return new PackSetResult(variant, Status.SUCCESS);
+        }
+        Status status = Status.SUCCESS;
+        for (ResourcePack failed : pack.getVariants()) {
+            Status varStatus = checkPack(playerId, failed, Status.UNKNOWN);
+            if (varStatus.ordinal() > status.ordinal()) {
+                status = varStatus;
+            }
+        }
+        return new PackSetResult(null, status);
+    }
+
+    /**
+     * Get the first variant of a pack that the player's client supports and that they have the permission for
+     * @param playerId The UUID of the player
+     * @param pack     The pack to get the variant for
+     * @return The variant or null if there is none
+     */
+    private ResourcePack getEligibleVariant(UUID playerId, ResourcePack pack) {
+        ClientCapabilities capabilities = plugin.getClientCapabilities(playerId);
+        List<ResourcePack> eligible = registry().getVariantTable(pack).getEligibleVariants(
+                capabilities.getClientType(), capabilities.getPackFormat(), capabilities.getProtocol());
+        for (ResourcePack variant : eligible) {
+            if (hasPermission(playerId, variant)) {
+                return variant;
             }
-            return new PackSetResult(null, status);
         }
+        return null;
     }
 
     /**
@@ -890,26 +1823,6 @@ public class PackManager {
      * @param pack The pack to send
      */
     private void sendPack(UUID playerId, ResourcePack pack) {
-        // If there is no watch service running and a local path is set for the pack then calculate the hash
-        if (watchService == null && pack.getLocalPath() != null && !pack.getLocalPath().isEmpty()) {
-            Path path = Paths.get(pack.getLocalPath());
-            if (Files.exists(path) && Files.isRegularFile(path)) {
-                plugin.runAsyncTask(() -> {
-                    try {
-                        byte[] bytes = Files.readAllBytes(path);
-                        HashCode hash = Hashing.sha1().hashBytes(bytes);
-                        setPackHash(pack, hash.toString());
-                    } catch (IOException e) {
-                        plugin.log(Level.WARNING, "Error while trying to read resource pack " + pack.getName() + " file from local path " + path, e);
-                    }
-                    plugin.runTask(() -> {
-                        plugin.sendPack(playerId, pack);
-                    });
-                });
-                return;
-            }
-        }
-
         plugin.sendPack(playerId, pack);
     }
 
@@ -952,46 +1865,205 @@ public class PackManager {
      * Apply the pack that a player should have on that server/world
      * @param player        The player
      * @param serverName    The name of the server/world
-     * @return The packs that were loaded by the client
+     * @return The packs that were loaded by the client, an empty set if none were sent
      */
     public Set<ResourcePack> applyPack(ResourcepacksPlayer player, String serverName) {
+        return applyPacks(player, serverName, getApplicablePacks(player, serverName));
+    }
+
+    /**
+     * Apply the pack that a player should have on that server/world without blocking while events are called.
+     * The select event, the send events and sending the packs are chained after each other.
+     * @param player        The player
+     * @param serverName    The name of the server/world
+     * @return A future for the packs that were loaded by the client, an empty set if none were sent
+     */
+    public CompletableFuture<Set<ResourcePack>> applyPackAsync(ResourcepacksPlayer player, String serverName) {
+        return getApplicablePacksAsync(player, serverName)
+                .thenCompose(packs -> applyPacksAsync(player, serverName, packs));
+    }
+
+    /**
+     * Apply the packs that multiple players should have on their servers/worlds, e.g. after a reload.
+     * Players on the same server with the same client and the same pack permissions share the
+     * selection of their packs so that it only has to be done once for all of them.
+     * @param playerServers The UUIDs of the players mapped to the name of the server/world that they are on
+     * @return The packs that were loaded by the clients of the players
+     */
+    public Map<UUID, Set<ResourcePack>> applyPacks(Map<UUID, String> playerServers) {
+        List<String> permissions = getPackPermissions();
+        Map<DecisionGroup, PackDecision> groups = new HashMap<>();
+        Map<UUID, Set<ResourcePack>> sentPacks = new LinkedHashMap<>();
+        for (Map.Entry<UUID, String> entry : playerServers.entrySet()) {
+            ResourcepacksPlayer player = plugin.getPlayer(entry.getKey());
+            if (player == null) {
+                continue;
+            }
+            PackDecision decision = getPackDecision(player, entry.getValue(), groups, permissions);
+            sentPacks.put(player.getUniqueId(), applyPacks(player, entry.getValue(), selectPacks(player, decision)));
+        }
+        if (plugin.isDebugLoggable()) {
+            plugin.logDebug("Applied packs to " + sentPacks.size() + " players in " + groups.size() + " groups");
+        }
+        return sentPacks;
+    }
+
+    /**
+     * Apply packs that were selected for a player
+     * @param player        The player
+     * @param serverName    The name of the server/world
+     * @param packs         The packs that the player should have
+     * @return The packs that were loaded by the client, an empty set if none were sent
+     */
+    private Set<ResourcePack> applyPacks(ResourcepacksPlayer player, String serverName, LinkedHashSet<ResourcePack> packs) {
         UUID playerId = player.getUniqueId();
-        LinkedHashSet<ResourcePack> sentPacks = new LinkedHashSet<>();
-        LinkedHashSet<ResourcePack> packs = getApplicablePacks(player, serverName);
+        Set<ResourcePack> sentPacks = null;
         if (plugin.supportsMultiplePacks(playerId)) {
-            PackAssignment assignment = getAssignment(serverName);
-            boolean packWasRemoved = false;
-            List<ResourcePack> userPacks = plugin.getUserManager().getUserPacks(playerId);
-            for (ResourcePack pack : userPacks) {
-                if (!packs.contains(pack) && !getGlobalAssignment().isOptionalPack(pack) && !assignment.isOptionalPack(pack)) {
-                    removePack(playerId, pack);
-                    packWasRemoved = true;
-                }
-            }
+            boolean packWasRemoved = removeOtherPacks(playerId, serverName, packs);
 
             boolean alreadyHadPack = false;
-            List<PackSetResult> appliedResults = new ArrayList<>();
             for (ResourcePack pack : packs) {
                 PackSetResult packSetResult = setPack(playerId, pack);
                 if (packSetResult.getPack() != null) {
                     alreadyHadPack |= packSetResult.getStatus() == Status.ALREADY_APPLIED;
-                    appliedResults.add(packSetResult);
+                    // the applied packs are only reported if none was already applied or a pack was removed
+                    if (!alreadyHadPack || packWasRemoved) {
+                        if (sentPacks == null) {
+                            sentPacks = new LinkedHashSet<>();
+                        }
+                        sentPacks.add(packSetResult.getPack());
+                    }
                 }
             }
-            if (!alreadyHadPack || packWasRemoved) {
-                for (PackSetResult appliedResult : appliedResults) {
-                    sentPacks.add(appliedResult.getPack());
+            if (alreadyHadPack && !packWasRemoved) {
+                sentPacks = null;
+            }
+        } else if (!packs.isEmpty()) {
+            ResourcePack sentPack = setPack(playerId, getSinglePack(player, packs)).getPack();
+            if (sentPack != null) {
+                sentPacks = Collections.singleton(sentPack);
+            }
+        }
+
+        plugin.sendPackInfo(playerId);
+        return sentPacks != null ? sentPacks : Collections.emptySet();
+    }
+
+    /**
+     * Apply packs that were selected for a player without blocking while the send events are called
+     * @param player        The player
+     * @param serverName    The name of the server/world
+     * @param packs         The packs that the player should have
+     * @return A future for the packs that were loaded by the client, an empty set if none were sent
+     */
+    private CompletableFuture<Set<ResourcePack>> applyPacksAsync(ResourcepacksPlayer player, String serverName, LinkedHashSet<ResourcePack> packs) {
+        UUID playerId = player.getUniqueId();
+        CompletableFuture<Set<ResourcePack>> future;
+        if (plugin.supportsMultiplePacks(playerId)) {
+            boolean packWasRemoved = removeOtherPacks(playerId, serverName, packs);
+
+            // packs are set one after another as every one depends on the packs the player already has
+            List<PackSetResult> results = new ArrayList<>();
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (ResourcePack pack : packs) {
+                chain = chain.thenCompose(v -> setPackAsync(playerId, pack)).thenAccept(results::add);
+            }
+            future = chain.thenApply(v -> {
+                Set<ResourcePack> sentPacks = new LinkedHashSet<>();
+                for (PackSetResult result : results) {
+                    if (result.getPack() != null) {
+                        if (result.getStatus() == Status.ALREADY_APPLIED && !packWasRemoved) {
+                            return Collections.emptySet();
+                        }
+                        sentPacks.add(result.getPack());
+                    }
+                }
+                return sentPacks;
+            });
+        } else if (!packs.isEmpty()) {
+            future = getSinglePackAsync(player, packs)
+                    .thenCompose(pack -> setPackAsync(playerId, pack))
+                    .thenApply(result -> result.getPack() != null
+                    ? Collections.singleton(result.getPack())
+                    : Collections.emptySet());
+        } else {
+            future = CompletableFuture.completedFuture(Collections.emptySet());
+        }
+
+        return future.thenApply(sentPacks -> {
+            plugin.sendPackInfo(playerId);
+            return sentPacks;
+        });
+    }
+
+    /**
+     * Remove the packs of a player that they shouldn't have anymore, optional packs are kept
+     * @param playerId      The UUID of the player
+     * @param serverName    The name of the server/world
+     * @param packs         The packs that the player should have
+     * @return Whether a pack was removed
+     */
+    private boolean removeOtherPacks(UUID playerId, String serverName, Set<ResourcePack> packs) {
+        PackAssignment assignment = getResolvedAssignment(serverName);
+        boolean packWasRemoved = false;
+        List<ResourcePack> userPacks = plugin.getUserManager().getUserPacks(playerId);
+        for (ResourcePack pack : userPacks) {
+            if (!packs.contains(pack) && !getGlobalAssignment().isOptionalPack(pack) && !assignment.isOptionalPack(pack)) {
+                removePack(playerId, pack);
+                packWasRemoved = true;
+            }
+        }
+        return packWasRemoved;
+    }
+
+    /**
+     * Get the pack to send to a player whose client only supports one pack, the packs are merged if that is enabled
+     * @param player    The player
+     * @param packs     The packs that the player should have, must not be empty
+     * @return The pack to send. If the merged pack is still being built the first pack is returned
+     *         and the packs get applied again once the merged one is available.
+     */
+    private ResourcePack getSinglePack(ResourcepacksPlayer player, Set<ResourcePack> packs) {
+        if (packs.size() > 1 && mergePacks) {
+            CompletableFuture<ResourcePack> merged = getMergedPack(player.getUniqueId(), packs);
+            if (!merged.isDone()) {
+                if (plugin.isDebugLoggable()) {
+                    plugin.logDebug("Merged pack for " + player.getName() + " is still being built, sending " + packs.iterator().next().getName() + " until it is done");
                 }
+                merged.thenAccept(pack -> {
+                    if (pack != null) {
+                        plugin.resendPack(player.getUniqueId());
+                    }
+                });
+                return packs.iterator().next();
             }
-        } else if (!packs.isEmpty()) {
-            ResourcePack sentPack = setPack(playerId, packs.iterator().next()).getPack();
-            if (sentPack != null) {
-                sentPacks.add(sentPack);
-            }
+            return getSinglePack(player, packs, merged.join());
         }
+        return packs.iterator().next();
+    }
 
-        plugin.sendPackInfo(playerId);
-        return sentPacks;
+    /**
+     * Get the pack to send to a player whose client only supports one pack, waiting for the merged pack without blocking
+     * @param player    The player
+     * @param packs     The packs that the player should have, must not be empty
+     * @return A future for the pack to send
+     */
+    private CompletableFuture<ResourcePack> getSinglePackAsync(ResourcepacksPlayer player, Set<ResourcePack> packs) {
+        if (packs.size() > 1 && mergePacks) {
+            return getMergedPack(player.getUniqueId(), packs).thenApply(merged -> getSinglePack(player, packs, merged));
+        }
+        return CompletableFuture.completedFuture(packs.iterator().next());
+    }
+
+    private ResourcePack getSinglePack(ResourcepacksPlayer player, Set<ResourcePack> packs, ResourcePack merged) {
+        if (merged != null) {
+            return merged;
+        }
+        ResourcePack pack = packs.iterator().next();
+        if (plugin.isDebugLoggable()) {
+            plugin.logDebug("Unable to merge the " + packs.size() + " packs of " + player.getName() + ", only sending " + pack.getName());
+        }
+        return pack;
     }
 
     /**
@@ -1013,83 +2085,194 @@ public class PackManager {
      * @return The packs for that server; an empty list if they should have none
      */
     public LinkedHashSet<ResourcePack> getApplicablePacks(ResourcepacksPlayer player, String serverName) {
+        return selectPacks(player, getPackDecision(player, serverName, null, null));
+    }
+
+    /**
+     * Get the decision which packs a player should have on a server, reusing their previous one if nothing changed
+     * @param player        The player
+     * @param serverName    The name of the server/world
+     * @param groups        The decisions of the groups of players that were already decided, null if not deciding for a group
+     * @param permissions   The permissions of all restricted packs, null if not deciding for a group
+     * @return The decision
+     */
+    private PackDecision getPackDecision(ResourcepacksPlayer player, String serverName, Map<DecisionGroup, PackDecision> groups, List<String> permissions) {
         UUID playerId = player.getUniqueId();
         List<ResourcePack> previousPacks = plugin.getUserManager().getUserPacks(playerId);
-        LinkedHashSet<ResourcePack> packs = new LinkedHashSet<>();
-        ResourcePack stored = getByName(plugin.getStoredPack(playerId));
+        String storedName = plugin.getStoredPack(playerId);
+        PackAssignment assignment = serverName != null && !serverName.isEmpty() ? getResolvedAssignment(serverName) : null;
+        PackAssignment global = getGlobalAssignment();
+        Object permissionSession = permissionCache.getSession(playerId);
+        ClientCapabilities capabilities = plugin.getClientCapabilities(playerId);
+        int protocol = capabilities.getProtocol();
+        ClientType clientType = capabilities.getClientType();
+        long registryVersion = registry().getVersion();
+
+        PackDecision decision = packDecisions.get(playerId);
+        if (decision == null || !decision.matches(assignment, global, storedName, previousPacks, clientType, protocol,
+                registryVersion, decisionsVersion.get(), permissionSession, permissionCache.getTtl())) {
+            long version = decisionsVersion.get();
+            decision = new PackDecision(assignment, global, storedName, previousPacks, clientType, protocol, registryVersion, version, permissionSession);
+            DecisionGroup group = null;
+            PackDecision groupDecision = null;
+            if (groups != null) {
+                group = new DecisionGroup(assignment, storedName, previousPacks, clientType, protocol,
+                        protocol < 0 ? -1 : capabilities.getPackFormat(), capabilities.supportsMultiplePacks(),
+                        getPermissionFingerprint(playerId, permissions));
+                groupDecision = groups.get(group);
+            }
+            if (groupDecision != null && groupDecision.global == global && groupDecision.registryVersion == registryVersion
+                    && groupDecision.decisionsVersion == version) {
+                decision.packs.addAll(groupDecision.packs);
+                decision.status = groupDecision.status;
+            } else {
+                decidePacks(player, assignment, previousPacks, getByName(storedName), decision);
+                if (group != null) {
+                    groups.put(group, decision);
+                }
+            }
+            if (permissionSession != null && version == decisionsVersion.get()) {
+                packDecisions.put(playerId, decision);
+                if (plugin.getPlayer(playerId) == null) {
+                    // disconnected while deciding, nothing would remove the decision anymore
+                    packDecisions.remove(playerId, decision);
+                }
+            }
+        } else if (plugin.isDebugLoggable()) {
+            plugin.logDebug("Using previous pack decision for " + player.getName());
+        }
+        return decision;
+    }
+
+    /**
+     * Get the pack the player should have on that server without blocking while the select event is called
+     * @param player     The player
+     * @param serverName The name of the server
+     * @return A future for the packs for that server; an empty list if they should have none
+     */
+    public CompletableFuture<LinkedHashSet<ResourcePack>> getApplicablePacksAsync(ResourcepacksPlayer player, String serverName) {
+        PackDecision decision = getPackDecision(player, serverName, null, null);
+        if (decision.status == null) {
+            return CompletableFuture.completedFuture(new LinkedHashSet<>(decision.packs));
+        }
+        return plugin.callPackSelectEventAsync(player.getUniqueId(), new ArrayList<>(decision.packs), decision.status)
+                .thenApply(selectEvent -> getSelectedPacks(player, selectEvent));
+    }
+
+    /**
+     * Call the select event for the packs of a decision
+     * @param player    The player
+     * @param decision  The decision
+     * @return The packs that the player should have
+     */
+    private LinkedHashSet<ResourcePack> selectPacks(ResourcepacksPlayer player, PackDecision decision) {
+        UUID playerId = player.getUniqueId();
+        if (decision.status == null) {
+            return new LinkedHashSet<>(decision.packs);
+        }
+        return getSelectedPacks(player, plugin.callPackSelectEvent(playerId, new ArrayList<>(decision.packs), decision.status));
+    }
+
+    private LinkedHashSet<ResourcePack> getSelectedPacks(ResourcepacksPlayer player, IResourcePackSelectEvent selectEvent) {
+        if (selectEvent.getStatus() != Status.SUCCESS && plugin.isDebugLoggable()) {
+            plugin.logDebug(player.getName() + " ResourcePackSelectEvent Status: " + selectEvent.getStatus());
+        }
+        return new LinkedHashSet<>(selectEvent.getPacks());
+    }
+
+    /**
+     * Decide which packs a player should have, without calling the select event
+     * @param player        The player
+     * @param assignment    The assignment of the server, null if the player isn't on one
+     * @param previousPacks The packs that the player currently has
+     * @param stored        The pack that the player has stored
+     * @param decision      The decision to store the packs and the status for the select event in
+     */
+    private void decidePacks(ResourcepacksPlayer player, PackAssignment assignment, List<ResourcePack> previousPacks, ResourcePack stored, PackDecision decision) {
+        UUID playerId = player.getUniqueId();
+        LinkedHashSet<ResourcePack> packs = decision.packs;
 
         if (getStoredPacksOverride() && stored != null) {
             if (checkPack(playerId, stored, Status.SUCCESS) == Status.SUCCESS) {
-                if (previousPacks.contains(stored)) {
-                    plugin.logDebug(player.getName() + " already uses the stored pack " + stored.getName());
-                } else {
-                    plugin.logDebug(player.getName() + " had the pack " + stored.getName() + " stored, using that");
+                if (plugin.isDebugLoggable()) {
+                    if (previousPacks.contains(stored)) {
+                        plugin.logDebug(player.getName() + " already uses the stored pack " + stored.getName());
+                    } else {
+                        plugin.logDebug(player.getName() + " had the pack " + stored.getName() + " stored, using that");
+                    }
                 }
                 packs.add(stored);
 
-                return packs;
+                return;
             }
         }
 
         for (ResourcePack prev : previousPacks) {
             if (getGlobalAssignment().isOptionalPack(prev) && checkPack(playerId, prev, Status.SUCCESS) == Status.SUCCESS) {
-                plugin.logDebug(player.getName() + " matched global as they already have the pack " + prev.getName());
+                if (plugin.isDebugLoggable()) {
+                    plugin.logDebug(player.getName() + " matched global as they already have the pack " + prev.getName());
+                }
                 packs.add(prev);
 
                 if (!plugin.supportsMultiplePacks(playerId)) {
-                    return packs;
+                    return;
                 }
             }
         }
 
         if (stored != null && getGlobalAssignment().isOptionalPack(stored) && checkPack(playerId, stored, Status.SUCCESS) == Status.SUCCESS) {
-            plugin.logDebug(player.getName() + " has stored pack which matches the optional packs in the global assignment");
+            if (plugin.isDebugLoggable()) {
+                plugin.logDebug(player.getName() + " has stored pack which matches the optional packs in the global assignment");
+            }
             packs.add(stored);
 
             if (!plugin.supportsMultiplePacks(playerId))
-                return packs;
+                return;
         }
 
-        String matchReason = " due to ";
+        String matchedAssignment = null;
+        String matchedBy = "";
+        boolean matchedVariant = false;
         Status status = Status.UNKNOWN;
-        if (serverName != null && !serverName.isEmpty()) {
-            PackAssignment assignment = getAssignment(serverName);
+        if (assignment != null) {
             for (ResourcePack prev : previousPacks) {
                 if (assignment.isOptionalPack(prev) && checkPack(playerId, prev, Status.SUCCESS) == Status.SUCCESS) {
-                    plugin.logDebug(player.getName() + " matched assignment " + assignment.getName() + " as they already have the pack " + prev.getName());
+                    if (plugin.isDebugLoggable()) {
+                        plugin.logDebug(player.getName() + " matched assignment " + assignment.getName() + " as they already have the pack " + prev.getName());
+                    }
                     packs.add(prev);
 
                     if (!plugin.supportsMultiplePacks(playerId)) {
-                        return packs;
+                        return;
                     }
                 }
             }
 
             if (stored != null && assignment.isOptionalPack(stored) && checkPack(playerId, stored, Status.SUCCESS) == Status.SUCCESS) {
-                plugin.logDebug(player.getName() + " matched assignment " + assignment.getName() + " as their stored pack is an optional packs");
+                if (plugin.isDebugLoggable()) {
+                    plugin.logDebug(player.getName() + " matched assignment " + assignment.getName() + " as their stored pack is an optional packs");
+                }
                 packs.add(stored);
 
                 if (!plugin.supportsMultiplePacks(playerId)) {
-                    return packs;
+                    return;
                 }
             }
 
 
-            List<ResourcePack> serverPacks = assignment.getPacks().stream()
-                    .map(this::getByName)
-                    .collect(Collectors.toCollection(ArrayList::new));
+            List<ResourcePack> serverPacks = getPacks(assignment.getPacks());
             status = checkPacks(playerId, serverPacks, Status.SUCCESS);
-            matchReason = assignment.getName() + matchReason;
+            matchedAssignment = assignment.getName();
             if (status == Status.SUCCESS) {
                 packs.addAll(serverPacks);
-                matchReason += "main packs";
+                matchedBy = "main packs";
             } else if (!plugin.supportsMultiplePacks(playerId) && (!previousPacks.isEmpty() || !serverPacks.isEmpty())) {
                 for (String secondaryName : assignment.getOptionalPacks()) {
                     ResourcePack secondaryPack = getByName(secondaryName);
                     status = checkPack(playerId, secondaryPack, status);
                     if (status == Status.SUCCESS) {
                         packs.add(secondaryPack);
-                        matchReason += "secondary pack";
+                        matchedBy = "secondary pack";
                         break;
                     }
                 }
@@ -1097,21 +2280,19 @@ public class PackManager {
         }
 
         if (packs.isEmpty()) {
-            List<ResourcePack> globalPacks = getGlobalAssignment().getPacks().stream()
-                    .map(this::getByName)
-                    .collect(Collectors.toCollection(ArrayList::new));
+            List<ResourcePack> globalPacks = getPacks(getGlobalAssignment().getPacks());
             status = checkPacks(playerId, globalPacks, Status.SUCCESS);
-            matchReason = "global due to ";
+            matchedAssignment = "global";
             if (status == Status.SUCCESS) {
                 packs.addAll(globalPacks);
-                matchReason += "main packs";
+                matchedBy = "main packs";
             } else if (!plugin.supportsMultiplePacks(playerId) && (!previousPacks.isEmpty() || !globalPacks.isEmpty())) {
                 for (String secondaryName : getGlobalAssignment().getOptionalPacks()) {
                     ResourcePack secondaryPack = getByName(secondaryName);
                     status = checkPack(playerId, secondaryPack, status);
                     if (status == Status.SUCCESS) {
                         packs.add(secondaryPack);
-                        matchReason += "secondary pack";
+                        matchedBy = "secondary pack";
                         break;
                     }
                 }
@@ -1122,71 +2303,66 @@ public class PackManager {
             if (!packs.isEmpty()) {
                 for (ResourcePack pack : packs) {
                     if (!pack.getVariants().isEmpty()) {
-                        status = Status.UNKNOWN;
-                        for (ResourcePack variant : pack.getVariants()) {
-                            status = checkPack(playerId, variant, status);
-                            if (status == Status.SUCCESS) {
-                                matchReason += " variant";
-                                break;
+                        if (getEligibleVariant(playerId, pack) != null) {
+                            status = Status.SUCCESS;
+                            matchedVariant = true;
+                        } else {
+                            status = Status.UNKNOWN;
+                            for (ResourcePack variant : pack.getVariants()) {
+                                status = checkPack(playerId, variant, status);
                             }
                         }
                     }
                 }
             }
-            if (status == Status.SUCCESS) {
-                plugin.logDebug(player.getName() + " matched assignment " + matchReason);
+            if (status == Status.SUCCESS && plugin.isDebugLoggable()) {
+                plugin.logDebug(player.getName() + " matched assignment " + matchedAssignment + " due to " + matchedBy + (matchedVariant ? " variant" : ""));
             }
         }
 
-        if (!packs.isEmpty()) {
-            Set<Status> packStatuses = EnumSet.of(status);
-            for (ResourcePack pack : packs) {
-                if (!pack.getUrl().isEmpty() && pack.getRawHash().length > 0) {
-                    packStatuses.add(Status.SUCCESS);
-                }
-            }
-            status = packStatuses.stream()
-                    .reduce((a, b) -> a.ordinal() > b.ordinal() ? a : b)
-                    .orElse(Status.UNKNOWN);
-        }
+        decision.status = status;
+    }
 
-        IResourcePackSelectEvent selectEvent = plugin.callPackSelectEvent(playerId, new ArrayList<>(packs), status);
-        if (selectEvent.getStatus() != Status.SUCCESS) {
-            plugin.logDebug(player.getName() + " ResourcePackSelectEvent Status: " + selectEvent.getStatus());
+    private List<ResourcePack> getPacks(Collection<String> packNames) {
+        List<ResourcePack> packs = new ArrayList<>(packNames.size());
+        for (String packName : packNames) {
+            packs.add(getByName(packName));
         }
-        return new LinkedHashSet<>(selectEvent.getPacks());
+        return packs;
+
     }
 
     protected Status checkPacks(UUID playerId, List<ResourcePack> packs, Status status) {
-        Set<Status> packStatuses = EnumSet.noneOf(Status.class);
+        boolean success = false;
+        Status worst = null;
         for (Iterator<ResourcePack> it = packs.iterator(); it.hasNext(); ) {
             ResourcePack pack = it.next();
             Status packStatus = checkPack(playerId, pack, status);
-            packStatuses.add(packStatus);
-            if (packStatus != Status.SUCCESS) {
+            if (packStatus == Status.SUCCESS) {
+                success = true;
+            } else {
+                if (worst == null || packStatus.ordinal() > worst.ordinal()) {
+                    worst = packStatus;
+                }
                 it.remove();
             }
         }
-        if (packStatuses.contains(Status.SUCCESS)) {
-            if (packStatuses.size() == 1) {
-                return Status.SUCCESS;
-            }
-            return status;
+        if (success) {
+            return worst == null ? Status.SUCCESS : status;
         }
-        return packStatuses.stream()
-                .reduce((a, b) -> a.ordinal() > b.ordinal() ? a : b)
-                .orElse(Status.UNKNOWN);
+        return worst != null ? worst : Status.UNKNOWN;
     }
 
     protected Status checkPack(UUID playerId, ResourcePack pack, Status status) {
         if (pack == null) {
             return status;
         }
-        boolean rightFormat = pack.getType() == plugin.getPlayerClientType(playerId)
-                && (plugin.getPlayerProtocol(playerId) < 0 /* unknown version */ || (
-                        pack.getFormat() <= plugin.getPlayerPackFormat(playerId)
-                                && pack.getVersion() <= plugin.getPlayerProtocol(playerId)));
-        boolean hasPermission = !pack.isRestricted() || plugin.checkPermission(playerId, pack.getPermission());
+        ClientCapabilities capabilities = plugin.getClientCapabilities(playerId);
+        boolean rightFormat = pack.getType() == capabilities.getClientType()
+                && (capabilities.getProtocol() < 0 /* unknown version */ || (
+                        pack.getMinFormat() <= capabilities.getPackFormat()
+                                && pack.getVersion() <= capabilities.getProtocol()));
+        boolean hasPermission = hasPermission(playerId, pack);
         if(rightFormat && hasPermission) {
             return Status.SUCCESS;
         }
@@ -1209,12 +2385,49 @@ public class PackManager {
         return status;
     }
 
+    private boolean hasPermission(UUID playerId, ResourcePack pack) {
+        return !pack.isRestricted() || permissionCache.hasPermission(playerId, pack.getPermission());
+    }
+
+    /**
+     * Get the permissions of all restricted packs and their variants
+     * @return The distinct permissions
+     */
+    private List<String> getPackPermissions() {
+        Set<String> permissions = new LinkedHashSet<>();
+        Deque<ResourcePack> queue = new ArrayDeque<>(registry().getPacks());
+        while (!queue.isEmpty()) {
+            ResourcePack pack = queue.poll();
+            if (pack.isRestricted() && pack.getPermission() != null) {
+                permissions.add(pack.getPermission());
+            }
+            queue.addAll(pack.getVariants());
+        }
+        return new ArrayList<>(permissions);
+    }
+
+    /**
+     * Get which of the pack permissions a player has
+     * @param playerId      The UUID of the player
+     * @param permissions   The permissions to check
+     * @return A set with the index of every permission that the player has
+     */
+    private BitSet getPermissionFingerprint(UUID playerId, List<String> permissions) {
+        BitSet fingerprint = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (permissionCache.hasPermission(playerId, permissions.get(i))) {
+                fingerprint.set(i);
+            }
+        }
+        return fingerprint;
+    }
+
     /**
      * Get a list of all packs
      * @return A new array list of packs
      */
     public List<ResourcePack> getPacks() {
-        return new ArrayList<>(packNames.values());
+        return registry().getPacks();
     }
 
     /**
@@ -1226,27 +2439,47 @@ public class PackManager {
         List<ResourcePack> packs = getPacks();
         plugin.runAsyncTask(() -> {
             plugin.sendMessage(sender, "generate-hashes.generating");
-            int changed = 0;
+            AtomicInteger changed = new AtomicInteger();
 
-            for (ResourcePack pack : packs) {
-                if (pack.getName().startsWith("backend-")) {
-                    continue;
-                }
-                if (pack.getVariants().isEmpty()) {
-                    if (generateHash(sender, pack, pack)) {
-                        changed++;
+            ExecutorService executor = Executors.newFixedThreadPool(hashGenerationParallelism, new ThreadFactoryBuilder()
+                    .setNameFormat(plugin.getName() + " Hash Generator #%d")
+                    .setDaemon(true)
+                    .build());
+            try {
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (ResourcePack pack : packs) {
+                    if (pack.getName().startsWith("backend-")) {
+                        continue;
                     }
-                } else {
-                    for (ResourcePack packVariant : pack.getVariants()) {
-                        if (generateHash(sender, packVariant, pack)) {
-                            changed++;
+                    if (pack.getVariants().isEmpty()) {
+                        if (pack.getUrl().isEmpty()) {
+                            continue;
+                        }
+                        futures.add(CompletableFuture.runAsync(() -> {
+                            if (generateHash(sender, pack, pack)) {
+                                changed.incrementAndGet();
+                            }
+                        }, executor));
+                    } else {
+                        for (ResourcePack packVariant : pack.getVariants()) {
+                            if (packVariant.getUrl().isEmpty()) {
+                                continue;
+                            }
+                            futures.add(CompletableFuture.runAsync(() -> {
+                                if (generateHash(sender, packVariant, pack)) {
+                                    changed.incrementAndGet();
+                                }
+                            }, executor));
                         }
                     }
                 }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } finally {
+                executor.shutdown();
             }
 
-            if (changed > 0) {
-                plugin.sendMessage(sender, "generate-hashes.changed", "amount", String.valueOf(changed));
+            if (changed.get() > 0) {
+                plugin.sendMessage(sender, "generate-hashes.changed", "amount", String.valueOf(changed.get()));
                 plugin.runTask(plugin::saveConfigChanges);
             } else {
                 plugin.sendMessage(sender, "generate-hashes.none-changed");
@@ -1256,8 +2489,7 @@ public class PackManager {
 
     private boolean generateHash(ResourcepacksPlayer sender, ResourcePack pack, ResourcePack packToCache) {
         boolean changed = false;
-        Path target = new File(plugin.getDataFolder(), pack.getName().replaceAll("[^a-zA-Z0-9\\.\\-]", "_") + "-downloaded.zip").toPath();
-        InputStream in = null;
+        long start = System.nanoTime();
         try {
             URL url = new URL(pack.getUrl());
             plugin.sendMessage(sender, "generate-hashes.downloading",
@@ -1265,24 +2497,23 @@ public class PackManager {
                     "url", pack.getUrl(),
                     "hash", pack.getHash()
             );
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setRequestProperty("User-Agent", plugin.getName() + "/" + plugin.getVersion());
-            in = con.getInputStream();
-            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
-
-            byte[] hash = Hashing.sha1().hashBytes(Files.readAllBytes(target)).asBytes();
-            if (!Arrays.equals(pack.getRawHash(), hash)) {
-                packHashes.remove(pack.getHash());
-                pack.setRawHash(hash);
-                packHashes.put(pack.getHash(), packToCache);
-                changed = true;
+            PackHasher.Result result = fetchRemotePack(pack, url);
+            if (result == null) {
+                plugin.sendMessage(sender, "generate-hashes.not-modified",
+                        "pack", pack.getName(),
+                        "url", pack.getUrl(),
+                        "hash", pack.getHash(),
+                        "time", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                );
+                return false;
             }
+            changed = setPackHash(pack, result.getHash().asBytes(), packToCache);
             plugin.sendMessage(sender, "generate-hashes.hash-sum",
                     "pack", pack.getName(),
                     "url", pack.getUrl(),
-                    "hash", pack.getHash()
+                    "hash", pack.getHash(),
+                    "time", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
             );
-            Files.deleteIfExists(target);
         } catch (MalformedURLException e) {
             plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.invalid-url",
                     "pack", pack.getName(),
@@ -1296,25 +2527,101 @@ public class PackManager {
                     "pack", pack.getName(),
                     "url", pack.getUrl(),
                     "hash", pack.getHash(),
-                    "error", e.getClass().getSimpleName() + ": " + e.getMessage()
+                    "error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "time", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
             );
             plugin.getPluginLogger().log(Level.WARNING, "IO error while trying to generate hash of pack " + pack.getName() + " from url " + pack.getUrl(), e);
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
-                            "pack", pack.getName(),
-                            "url", pack.getUrl(),
-                            "hash", pack.getHash(),
-                            "error", e.getClass().getSimpleName() + ": " + e.getMessage()
-                    );
-                    plugin.getPluginLogger().log(Level.WARNING, "Error while trying to close the input stream for pack " + pack.getName() + " hash generation", e);
+        }
+        return changed;
+    }
+
+    /**
+     * Check whether the remote file of a pack changed and update the pack's hash if it did.
+     * The hash is only replaced if it wasn't changed by something else while the file was downloaded.
+     * @param pack          The pack or variant to check
+     * @param packToCache   The pack to cache the hash for, if the pack is a variant then this is its parent
+     * @return Whether the hash of the pack changed
+     * @throws IOException If the remote file could not be checked or downloaded
+     */
+    boolean refreshRemoteHash(ResourcePack pack, ResourcePack packToCache) throws IOException {
+        byte[] previousHash = pack.getRawHash();
+        String previousHashString = pack.getHash();
+        PackHasher.Result result = fetchRemotePack(pack, new URL(pack.getUrl()));
+        if (result == null) {
+            return false;
+        }
+        byte[] hash = result.getHash().asBytes();
+        synchronized (this) {
+            if (!Arrays.equals(pack.getRawHash(), previousHash)) {
+                plugin.logDebug("Hash of pack " + pack.getName() + " was changed while checking its remote file, ignoring " + result.getHash());
+                return false;
+            }
+            if (!setPackHash(pack, hash, packToCache)) {
+                return false;
+            }
+        }
+        plugin.log(Level.INFO, "Remote file of pack " + pack.getName() + " changed! Its hash drifted from "
+                + (previousHashString.isEmpty() ? "none" : previousHashString) + " to " + pack.getHash());
+        return true;
+    }
+
+    /**
+     * Download the remote file of a pack if it changed since its hash was last generated.
+     * A conditional request is used if the validators of the current hash are known so that
+     * nothing is downloaded if the file didn't change.
+     * @param pack  The pack or variant
+     * @param url   The url of the pack
+     * @return The result of hashing the downloaded file or <code>null</code> if it was not modified
+     * @throws IOException If the remote file could not be downloaded or failed the check
+     */
+    private PackHasher.Result fetchRemotePack(ResourcePack pack, URL url) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setRequestProperty("User-Agent", plugin.getName() + "/" + plugin.getVersion());
+        HashIndex.RemoteEntry validators = hashIndex != null ? hashIndex.getRemote(pack.getUrl()) : null;
+        boolean cache = shouldCacheRemotePacks();
+        if (validators != null && validators.getHash().equals(pack.getHash())
+                && (!cache || packCache.contains(pack.getHash()))) {
+            // Only ask for changes if our current hash is the one belonging to the validators
+            if (validators.getEtag() != null) {
+                con.setRequestProperty("If-None-Match", validators.getEtag());
+            }
+            if (validators.getLastModified() != null) {
+                con.setRequestProperty("If-Modified-Since", validators.getLastModified());
+            }
+        }
+
+        if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return null;
+        }
+
+        PackHasher.Result result;
+        try (InputStream in = con.getInputStream()) {
+            result = cache ? packCache.store(in) : hasher.hash(in);
+        }
+        if (cache) {
+            Path cached = packCache.get(result.getHash().toString());
+            if (cached != null) {
+                PackScanner.Report report = scanner.scan(cached);
+                if (!report.isValid()) {
+                    throw new ZipException("Downloaded file failed the check: " + String.join(", ", report.getErrors()));
                 }
+                plugin.logDebug("Scanned cached file of pack " + pack.getName() + ": " + report);
             }
         }
-        return changed;
+        plugin.logDebug("Hashed remote pack " + pack.getName() + ": " + result);
+
+        if (hashIndex != null) {
+            hashIndex.putRemote(pack.getUrl(), con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"), result.getHash().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Set the amount of packs that should be downloaded in parallel when generating hashes
+     * @param parallelism The amount of parallel downloads, at least 1
+     */
+    public void setHashGenerationParallelism(int parallelism) {
+        this.hashGenerationParallelism = Math.max(1, parallelism);
     }
 
     /**
@@ -1323,10 +2630,178 @@ public class PackManager {
      * @return The url
      */
     public String getPackUrl(ResourcePack pack) {
+        String baseUrl = localPackBaseUrl();
+        String url = baseUrl != null && isHostedLocally(pack) ? baseUrl + getHostedPath(pack) : mirrorHealthChecker.selectUrl(pack);
+        return appendHash(pack, url);
+    }
+
+    private String appendHash(ResourcePack pack, String url) {
         if (!shouldAppendHashToUrl() || pack.getRawHash().length == 0) {
-            return pack.getUrl();
+            return url;
+        }
+        return url + PackManager.HASH_KEY + pack.getHash();
+    }
+
+    /**
+     * Check whether an url is one that {@link #getPackUrl(ResourcePack)} could have returned for a pack.
+     * As the url depends on the state of the pack's mirrors it might differ between calls.
+     * This doesn't select a mirror so it doesn't influence which mirror is used next.
+     * @param pack  The pack
+     * @param url   The url to check
+     * @return Whether the url is the pack's url or the url of one of its mirrors
+     */
+    public boolean isPackUrl(ResourcePack pack, String url) {
+        String baseUrl = localPackBaseUrl();
+        if (baseUrl != null && isHostedLocally(pack)) {
+            return url.equals(appendHash(pack, baseUrl + getHostedPath(pack)));
+        }
+        if (url.equals(appendHash(pack, pack.getUrl()))) {
+            return true;
+        }
+        for (String mirror : pack.getMirrors()) {
+            if (url.equals(appendHash(pack, mirror))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a pack is served by the built-in web server. This is the case for packs
+     * which have a local path but no url when a base url for locally hosted packs is set.
+     * @param pack The pack to check
+     * @return Whether the pack is hosted locally
+     */
+    public boolean isHostedLocally(ResourcePack pack) {
+        if (localPackBaseUrl() == null) {
+            return false;
+        }
+        if (isServedFromCache(pack)) {
+            // includes merged packs which only exist in the cache
+            return true;
+        }
+        return (pack.getUrl() == null || pack.getUrl().isEmpty())
+                && pack.getLocalPath() != null && !pack.getLocalPath().isEmpty();
+    }
+
+    /**
+     * Check whether a pack is served from the local pack cache. This is the case for remote packs
+     * when remote caching is enabled and for local and merged packs whose current version was stored in the cache.
+     * @param pack The pack to check
+     * @return Whether the pack's current version is in the cache
+     */
+    public boolean isServedFromCache(ResourcePack pack) {
+        if (packCache == null || localPackBaseUrl() == null || !packCache.contains(pack.getHash())) {
+            return false;
+        }
+        if (pack.getUrl() == null || pack.getUrl().isEmpty()) {
+            // local packs are optimized or published to the cache, merged ones only exist there
+            return true;
+        }
+        return cacheRemotePacks;
+    }
+
+    /**
+     * Get the path under which a pack is served by the built-in web server
+     * @param pack The pack
+     * @return The path, relative to the base url
+     */
+    public String getHostedPath(ResourcePack pack) {
+        if (isServedFromCache(pack)) {
+            return "/cache/" + pack.getHash() + ".zip";
+        }
+        return getNamedPath(pack);
+    }
+
+    private String getNamedPath(ResourcePack pack) {
+        return "/packs/" + UrlEscapers.urlPathSegmentEscaper().escape(pack.getName().toLowerCase(Locale.ROOT)) + ".zip";
+    }
+
+    /**
+     * Get the pack (variant) with a local file that is served under a certain path by the built-in web server
+     * @param path The requested path, relative to the base url
+     * @return The pack or null if no pack is served under that path
+     */
+    public ResourcePack getHostedPack(String path) {
+        return registry().getHosted(path);
+    }
+
+    /**
+     * Get the file that the built-in web server should send for a certain path
+     * @param path The requested path, relative to the base url
+     * @return The file or null if nothing is served under that path
+     */
+    public HostedFile getHostedFile(String path) {
+        if (path.startsWith("/cache/")) {
+            String hash = path.substring("/cache/".length()).replace(".zip", "");
+            Path file = packCache != null ? packCache.get(hash) : null;
+            return file != null ? new HostedFile(file, hash) : null;
+        }
+        ResourcePack pack = getHostedPack(path);
+        if (pack == null || pack.getLocalPath() == null || pack.getLocalPath().isEmpty()) {
+            return null;
+        }
+        return new HostedFile(Paths.get(pack.getLocalPath()), pack.getHash());
+    }
+
+    /**
+     * Get the cache that remote packs are stored in
+     * @return The pack cache
+     */
+    public PackCache getPackCache() {
+        return packCache;
+    }
+
+    /**
+     * Set whether remote packs should be downloaded into the pack cache when their hash is generated
+     * and sent to players from the built-in web server instead of their origin
+     * @param cacheRemotePacks Whether to cache remote packs
+     */
+    public void setCacheRemotePacks(boolean cacheRemotePacks) {
+        this.cacheRemotePacks = cacheRemotePacks;
+    }
+
+    /**
+     * Whether remote packs are downloaded into the pack cache
+     * @return Whether remote packs are cached
+     */
+    public boolean shouldCacheRemotePacks() {
+        return cacheRemotePacks && packCache != null && localPackBaseUrl() != null;
+    }
+
+    /**
+     * Get the base url under which the built-in web server serves local packs
+     * @return The base url without trailing slash or null if packs are not hosted locally
+     */
+    public String getLocalPackBaseUrl() {
+        return localPackBaseUrl();
+    }
+
+    /**
+     * Set the base url under which the built-in web server serves local packs.
+     * If packs are being loaded by the current thread then it only applies once they are published.
+     * @param localPackBaseUrl The public base url or null if packs are not hosted locally
+     */
+    public synchronized void setLocalPackBaseUrl(String localPackBaseUrl) {
+        if (localPackBaseUrl != null && localPackBaseUrl.endsWith("/")) {
+            localPackBaseUrl = localPackBaseUrl.substring(0, localPackBaseUrl.length() - 1);
         }
-        return pack.getUrl() + PackManager.HASH_KEY + pack.getHash();
+        if (pendingRegistry != null && loadingThread == Thread.currentThread()) {
+            pendingLocalPackBaseUrl = localPackBaseUrl;
+        } else {
+            this.localPackBaseUrl = localPackBaseUrl;
+        }
+    }
+
+    /**
+     * Get the base url for locally hosted packs that the current thread should see
+     */
+    private String localPackBaseUrl() {
+        String pending = pendingLocalPackBaseUrl;
+        if (pendingRegistry != null && loadingThread == Thread.currentThread()) {
+            return pending;
+        }
+        return localPackBaseUrl;
     }
 
     /**
@@ -1400,6 +2875,26 @@ public class PackManager {
      */
     public void setDirty(boolean dirty) {
         this.dirty = dirty;
+        if (dirty) {
+            // assignments might have been modified directly
+            invalidatePackDecisions();
+        }
+    }
+
+    /**
+     * Forget the packs that were decided for all players so that they are decided again on their next server switch
+     */
+    public void invalidatePackDecisions() {
+        decisionsVersion.incrementAndGet();
+        packDecisions.clear();
+    }
+
+    /**
+     * Forget the packs that were decided for a player so that they are decided again on their next server switch
+     * @param playerId The UUID of the player
+     */
+    public void invalidatePackDecision(UUID playerId) {
+        packDecisions.remove(playerId);
     }
 
     /**
@@ -1412,6 +2907,156 @@ public class PackManager {
         }
     }
 
+    /**
+     * The scan report of a local pack file and the attributes of the file when it was scanned
+     */
+    private static class ScannedFile {
+        private final long size;
+        private final long modified;
+        private final Object fileKey;
+        private final PackScanner.Report report;
+
+        private ScannedFile(BasicFileAttributes attributes, PackScanner.Report report) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.report = report;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return attributes != null && size == attributes.size()
+                    && modified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+
+    /**
+     * The empty pack and the assignments, loaded and published together with the packs
+     */
+    private static class AssignmentState {
+        /**
+         * The empty pack, null if none is set
+         */
+        private volatile ResourcePack empty = null;
+
+        /**
+         * The global assignment
+         */
+        private volatile PackAssignment global = new PackAssignment("global");
+
+        /**
+         * lowercase server-/worldname -> pack assignment
+         */
+        private final Map<String, PackAssignment> literal = new LinkedHashMap<>();
+
+        /**
+         * lowercase assignment name -> regex pack assignment
+         */
+        private final Map<String, PackAssignment> regex = new LinkedHashMap<>();
+    }
+
+    /**
+     * The packs that were decided for a player and the inputs that they were decided from
+     */
+    private static class PackDecision {
+        private final PackAssignment assignment;
+        private final PackAssignment global;
+        private final String storedName;
+        private final List<ResourcePack> previousPacks;
+        private final ClientType clientType;
+        private final int protocol;
+        private final long registryVersion;
+        private final long decisionsVersion;
+        private final Object permissionSession;
+        private final long created = System.nanoTime();
+        private final LinkedHashSet<ResourcePack> packs = new LinkedHashSet<>();
+        /**
+         * The status to call the select event with, null if no event should be called
+         */
+        private Status status = null;
+
+        private PackDecision(PackAssignment assignment, PackAssignment global, String storedName, List<ResourcePack> previousPacks,
+                             ClientType clientType, int protocol, long registryVersion, long decisionsVersion, Object permissionSession) {
+            this.assignment = assignment;
+            this.global = global;
+            this.storedName = storedName;
+            this.previousPacks = previousPacks;
+            this.clientType = clientType;
+            this.protocol = protocol;
+            this.registryVersion = registryVersion;
+            this.decisionsVersion = decisionsVersion;
+            this.permissionSession = permissionSession;
+        }
+
+        /**
+         * Check whether this decision was made from the same inputs and the permissions it used are still valid
+         */
+        private boolean matches(PackAssignment assignment, PackAssignment global, String storedName, List<ResourcePack> previousPacks,
+                                ClientType clientType, int protocol, long registryVersion, long decisionsVersion,
+                                Object permissionSession, long permissionTtl) {
+            if (assignment != this.assignment || global != this.global || clientType != this.clientType
+                    || protocol != this.protocol || registryVersion != this.registryVersion
+                    || decisionsVersion != this.decisionsVersion || permissionSession != this.permissionSession
+                    || !Objects.equals(storedName, this.storedName)
+                    || System.nanoTime() - created > TimeUnit.MILLISECONDS.toNanos(permissionTtl)
+                    || previousPacks.size() != this.previousPacks.size()) {
+                return false;
+            }
+            for (int i = 0; i < previousPacks.size(); i++) {
+                if (previousPacks.get(i) != this.previousPacks.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The inputs that decide which packs a player gets, players with equal groups get the same packs
+     */
+    private static class DecisionGroup {
+        private final PackAssignment assignment;
+        private final String storedName;
+        private final List<ResourcePack> previousPacks;
+        private final ClientType clientType;
+        private final int protocol;
+        private final int packFormat;
+        private final boolean multiplePacks;
+        private final BitSet permissions;
+
+        private DecisionGroup(PackAssignment assignment, String storedName, List<ResourcePack> previousPacks, ClientType clientType,
+                              int protocol, int packFormat, boolean multiplePacks, BitSet permissions) {
+            this.assignment = assignment;
+            this.storedName = storedName;
+            this.previousPacks = previousPacks;
+            this.clientType = clientType;
+            this.protocol = protocol;
+            this.packFormat = packFormat;
+            this.multiplePacks = multiplePacks;
+            this.permissions = permissions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DecisionGroup)) {
+                return false;
+            }
+            DecisionGroup group = (DecisionGroup) o;
+            return assignment == group.assignment && protocol == group.protocol && packFormat == group.packFormat
+                    && multiplePacks == group.multiplePacks && clientType == group.clientType
+                    && Objects.equals(storedName, group.storedName) && previousPacks.equals(group.previousPacks)
+                    && permissions.equals(group.permissions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(assignment), storedName, previousPacks, clientType, protocol, packFormat, multiplePacks, permissions);
+        }
+    }
+
     /**
      * The result of setting a pack
      */
@@ -0,0 +1,419 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pack formats that a pack declares in its pack.mcmeta file
+ */
+public class PackMetadata {
+
+    /**
+     * The metadata of a pack that has no (readable) pack.mcmeta file
+     */
+    public static final PackMetadata NONE = new PackMetadata(0, 0, 0);
+
+    private static final String FILE_NAME = "pack.mcmeta";
+    private static final int MAX_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_DEPTH = 64;
+
+    private final int format;
+    private final int minFormat;
+    private final int maxFormat;
+
+    /**
+     * Create new metadata
+     * @param format    The pack_format, 0 if none is declared
+     * @param minFormat The lowest supported format, 0 if no range is declared
+     * @param maxFormat The highest supported format, 0 if no range is declared
+     */
+    public PackMetadata(int format, int minFormat, int maxFormat) {
+        this.format = format;
+        this.minFormat = minFormat;
+        this.maxFormat = maxFormat;
+    }
+
+    /**
+     * Read the metadata of a pack file
+     * @param path The path of the pack's zip file
+     * @return The metadata, {@link #NONE} if the pack has no pack.mcmeta
+     * @throws IOException If the file could not be read or the pack.mcmeta is invalid
+     */
+    public static PackMetadata read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Read the metadata from the channel of a pack file. Only the central directory and
+     * the pack.mcmeta entry are read, not the rest of the pack.
+     * @param channel The channel of the pack's zip file
+     * @return The metadata, {@link #NONE} if the pack has no pack.mcmeta
+     * @throws IOException If the file could not be read or the pack.mcmeta is invalid
+     */
+    public static PackMetadata read(FileChannel channel) throws IOException {
+        ZipDirectory directory = ZipDirectory.read(channel);
+        ZipDirectory.Entry entry = directory.getEntry(FILE_NAME);
+        if (entry == null) {
+            return NONE;
+        }
+        return parse(new String(directory.readContent(channel, entry, MAX_FILE_SIZE), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse the content of a pack.mcmeta file. Supports <code>pack_format</code>, <code>supported_formats</code>
+     * as well as <code>min_format</code>/<code>max_format</code>. Overlays are ignored as they only apply
+     * within the range that the pack itself declares.
+     * @param json The json content of the file
+     * @return The metadata
+     * @throws IOException If the json is invalid
+     */
+    public static PackMetadata parse(String json) throws IOException {
+        Object root;
+        try {
+            root = new JsonParser(json).parseDocument();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid " + FILE_NAME + ": " + e.getMessage());
+        }
+        if (!(root instanceof Map)) {
+            throw new IOException("Invalid " + FILE_NAME + ": root is not an object");
+        }
+        Object pack = ((Map<?, ?>) root).get("pack");
+        if (!(pack instanceof Map)) {
+            return NONE;
+        }
+
+        int format = toFormat(((Map<?, ?>) pack).get("pack_format"));
+        int[] range = toRange(((Map<?, ?>) pack).get("supported_formats"));
+        int minFormat = toFormat(((Map<?, ?>) pack).get("min_format"));
+        int maxFormat = toFormat(((Map<?, ?>) pack).get("max_format"));
+        if (minFormat > 0 && maxFormat >= minFormat) {
+            range = extend(range, new int[]{minFormat, maxFormat});
+        }
+        if (format <= 0 && range != null) {
+            format = range[0];
+        }
+        if (format <= 0) {
+            return NONE;
+        }
+
+        if (range == null) {
+            return new PackMetadata(format, 0, 0);
+        }
+        range = extend(range, new int[]{format, format});
+        return new PackMetadata(format, range[0], range[1]);
+    }
+
+    private static int[] extend(int[] range, int[] other) {
+        if (range == null) {
+            return other;
+        }
+        return new int[]{Math.min(range[0], other[0]), Math.max(range[1], other[1])};
+    }
+
+    /**
+     * Get a format from a json value, newer versions can use a [major, minor] array
+     */
+    private static int toFormat(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof List && !((List<?>) value).isEmpty() && ((List<?>) value).get(0) instanceof Number) {
+            return ((Number) ((List<?>) value).get(0)).intValue();
+        }
+        return 0;
+    }
+
+    /**
+     * Get a format range from a json value, either a single number, a [min, max] array
+     * or a {min_inclusive, max_inclusive} object
+     */
+    private static int[] toRange(Object value) {
+        int min;
+        int max;
+        if (value instanceof Number) {
+            min = max = ((Number) value).intValue();
+        } else if (value instanceof List && ((List<?>) value).size() == 2) {
+            min = toFormat(((List<?>) value).get(0));
+            max = toFormat(((List<?>) value).get(1));
+        } else if (value instanceof Map) {
+            min = toFormat(((Map<?, ?>) value).get("min_inclusive"));
+            max = toFormat(((Map<?, ?>) value).get("max_inclusive"));
+        } else {
+            return null;
+        }
+        if (min <= 0 || max < min) {
+            return null;
+        }
+        return new int[]{min, max};
+    }
+
+    /**
+     * Get the metadata from its string representation
+     * @param string The string as returned by {@link #toString()}
+     * @return The metadata or <code>null</code> if the string is not valid
+     */
+    public static PackMetadata fromString(String string) {
+        String[] parts = string.split(" ");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new PackMetadata(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the declared pack_format
+     * @return The format or 0 if none was declared
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the lowest format that the pack supports
+     * @return The format or 0 if no range was declared
+     */
+    public int getMinFormat() {
+        return minFormat;
+    }
+
+    /**
+     * Get the highest format that the pack supports
+     * @return The format or 0 if no range was declared
+     */
+    public int getMaxFormat() {
+        return maxFormat;
+    }
+
+    @Override
+    public String toString() {
+        return format + " " + minFormat + " " + maxFormat;
+    }
+
+    /**
+     * A minimal json parser that returns maps, lists, strings, numbers, booleans and null
+     */
+    private static class JsonParser {
+        private final String json;
+        private int pos = 0;
+        private int depth = 0;
+
+        private JsonParser(String json) {
+            this.json = json;
+        }
+
+        private Object parseDocument() {
+            if (!json.isEmpty() && json.charAt(0) == '\uFEFF') {
+                pos++;
+            }
+            Object value = parseValue();
+            skipWhitespace();
+            if (pos < json.length()) {
+                throw error("Unexpected trailing content");
+            }
+            return value;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw error("Unexpected end");
+            }
+            char c = json.charAt(pos);
+            switch (c) {
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '"':
+                    return parseString();
+                case 't':
+                    return parseLiteral("true", Boolean.TRUE);
+                case 'f':
+                    return parseLiteral("false", Boolean.FALSE);
+                case 'n':
+                    return parseLiteral("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return parseNumber();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            enter();
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                depth--;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected key");
+                }
+                String key = parseString();
+                skipWhitespace();
+                expect(':');
+                map.put(key, parseValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    depth--;
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> parseArray() {
+            enter();
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                depth--;
+                return list;
+            }
+            while (true) {
+                list.add(parseValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    depth--;
+                    return list;
+                }
+            }
+        }
+
+        private String parseString() {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    if (pos >= json.length()) {
+                        break;
+                    }
+                    char escaped = json.charAt(pos++);
+                    switch (escaped) {
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'u':
+                            if (pos + 4 > json.length()) {
+                                throw error("Invalid unicode escape");
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                            } catch (NumberFormatException e) {
+                                throw error("Invalid unicode escape");
+                            }
+                            pos += 4;
+                            break;
+                        default: sb.append(escaped);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Number parseNumber() {
+            int start = pos;
+            while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String number = json.substring(start, pos);
+            try {
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    return Long.parseLong(number);
+                }
+                return Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + number);
+            }
+        }
+
+        private Object parseLiteral(String literal, Object value) {
+            if (!json.startsWith(literal, pos)) {
+                throw error("Unexpected character '" + json.charAt(pos) + "'");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw error("Nested deeper than " + MAX_DEPTH + " levels");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw error("Unexpected end");
+            }
+            return json.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Rewrites pack zips to make them as small as possible: junk entries that operating systems
+ * leave behind are removed, duplicate entries are collapsed and all entries are deflated with
+ * the best compression level in parallel, optionally after their content was optimized by an
+ * {@link AssetOptimizer}. Entries are written in a deterministic order with
+ * fixed timestamps so the same content always results in the same file and hash.
+ */
+public class PackOptimizer {
+
+    private static final Set<String> JUNK_FILES = ImmutableSet.of(".DS_Store", "Thumbs.db", "desktop.ini");
+
+    /**
+     * How many entries are compressed in parallel before they get written,
+     * this limits how much compressed data is kept in memory at the same time
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * DOS date of 1980-01-01 00:00, the earliest date that zip files can represent
+     */
+    private static final int DOS_DATE = (1 << 5) | 1;
+    private static final int DOS_TIME = 0;
+
+    private final ResourcepacksPlugin plugin;
+    private final PackHasher hasher;
+    private ForkJoinPool pool = null;
+    private AssetOptimizer assetOptimizer = null;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public PackOptimizer(ResourcepacksPlugin plugin, PackHasher hasher) {
+        this.plugin = plugin;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Set how many entries should be compressed in parallel
+     * @param parallelism The amount of threads to use, at least 1
+     */
+    public synchronized void setParallelism(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        if (this.parallelism != parallelism) {
+            this.parallelism = parallelism;
+            close();
+        }
+    }
+
+    /**
+     * Set the optimizer that should be run on every asset before it gets compressed
+     * @param assetOptimizer The asset optimizer or null if assets should be kept as they are
+     */
+    public void setAssetOptimizer(AssetOptimizer assetOptimizer) {
+        this.assetOptimizer = assetOptimizer;
+    }
+
+    /**
+     * Get the optimizer that is run on every asset before it gets compressed
+     * @return The asset optimizer or null if assets are kept as they are
+     */
+    public AssetOptimizer getAssetOptimizer() {
+        return assetOptimizer;
+    }
+
+    /**
+     * Stop the threads of this optimizer
+     */
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName(plugin.getName() + " Pack Optimizer #" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Write an optimized version of a pack zip
+     * @param source The zip to optimize
+     * @param target The file to write the optimized zip to
+     * @return The result containing the hash of the optimized zip and the size difference
+     * @throws IOException If the source could not be read, is not a valid zip or the target could not be written
+     */
+    public Result optimize(Path source, Path target) throws IOException {
+        return merge(Collections.singletonList(source), target);
+    }
+
+    /**
+     * Merge multiple pack zips into one optimized zip. If multiple packs contain the same
+     * entry then the entry of the pack that comes later in the list is used.
+     * @param sources The zips to merge, in the order in which they should override each other
+     * @param target  The file to write the merged zip to
+     * @return The result containing the hash of the merged zip and the size difference
+     * @throws IOException If a source could not be read, is not a valid zip or the target could not be written
+     */
+    public Result merge(List<Path> sources, Path target) throws IOException {
+        long start = System.nanoTime();
+        long sourceSize = 0;
+        List<ZipFile> zips = new ArrayList<>();
+        try {
+            // Sorted by name, later duplicates replace earlier ones like they would when extracting
+            Map<String, SourceEntry> entries = new TreeMap<>();
+            int removed = 0;
+            for (Path source : sources) {
+                sourceSize += Files.size(source);
+                ZipFile zip = new ZipFile(source.toFile());
+                zips.add(zip);
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    ZipEntry entry = e.nextElement();
+                    if (entry.isDirectory() || isJunk(entry.getName())) {
+                        removed++;
+                    } else if (entries.put(entry.getName(), new SourceEntry(zip, entry)) != null) {
+                        removed++;
+                    }
+                }
+            }
+            if (entries.size() >= 0xFFFF) {
+                throw new IOException("Packs with " + entries.size() + " entries are too large to be optimized");
+            }
+
+            List<SourceEntry> sorted = new ArrayList<>(entries.values());
+            try (ZipWriter writer = new ZipWriter(new BufferedOutputStream(Files.newOutputStream(target), PackHasher.CHUNK_SIZE))) {
+                for (int i = 0; i < sorted.size(); i += BATCH_SIZE) {
+                    List<SourceEntry> batch = sorted.subList(i, Math.min(sorted.size(), i + BATCH_SIZE));
+                    for (CompressedEntry compressed : compress(batch)) {
+                        writer.write(compressed);
+                    }
+                }
+            }
+
+            PackHasher.Result hash = hasher.hash(target);
+            return new Result(hash, sourceSize, hash.getSize(), entries.size(), removed, System.nanoTime() - start);
+        } finally {
+            for (ZipFile zip : zips) {
+                zip.close();
+            }
+        }
+    }
+
+    private List<CompressedEntry> compress(List<SourceEntry> batch) throws IOException {
+        AssetOptimizer assetOptimizer = this.assetOptimizer;
+        try {
+            return getPool().submit(() -> batch.parallelStream()
+                    .map(entry -> compress(entry.zip, entry.entry, assetOptimizer))
+                    .collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while optimizing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedEntryException) {
+                throw ((UncheckedEntryException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static CompressedEntry compress(ZipFile zip, ZipEntry entry, AssetOptimizer assetOptimizer) {
+        byte[] data;
+        try (InputStream in = zip.getInputStream(entry)) {
+            data = ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedEntryException(new IOException("Unable to read entry " + entry.getName(), e));
+        }
+        if (assetOptimizer != null) {
+            data = assetOptimizer.optimize(entry.getName(), data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                if (out.size() >= data.length) {
+                    // compression doesn't help, store it instead
+                    return new CompressedEntry(entry.getName(), ZipEntry.STORED, crc.getValue(), data.length, data);
+                }
+            }
+            return new CompressedEntry(entry.getName(), ZipEntry.DEFLATED, crc.getValue(), data.length, out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Check whether an entry is junk that operating systems or editors left in the pack
+     * @param name The name of the entry
+     * @return Whether the entry can be removed
+     */
+    public static boolean isJunk(String name) {
+        if (name.startsWith("__MACOSX/") || name.contains("/__MACOSX/")) {
+            return true;
+        }
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        return JUNK_FILES.contains(fileName) || fileName.startsWith("._");
+    }
+
+    private static class SourceEntry {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+
+        private SourceEntry(ZipFile zip, ZipEntry entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+    }
+
+    private static class CompressedEntry {
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+
+        private CompressedEntry(String name, int method, long crc, long size, byte[] data) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+
+    private static class UncheckedEntryException extends RuntimeException {
+        private UncheckedEntryException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Writes already compressed entries as a zip file
+     */
+    private static class ZipWriter implements AutoCloseable {
+        private static final int FLAG_UTF8 = 1 << 11;
+
+        private final OutputStream out;
+        private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        private long offset = 0;
+        private int count = 0;
+
+        private ZipWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private void write(CompressedEntry entry) throws IOException {
+            if (offset > 0xFFFFFFFFL || entry.size > 0xFFFFFFFFL) {
+                throw new IOException("Packs larger than 4GiB can't be optimized");
+            }
+            int version = entry.method == ZipEntry.DEFLATED ? 20 : 10;
+
+            writeInt(centralDirectory, 0x02014b50);
+            writeShort(centralDirectory, version); // version made by
+            writeHeader(centralDirectory, version, entry);
+            writeShort(centralDirectory, 0); // comment length
+            writeShort(centralDirectory, 0); // disk number
+            writeShort(centralDirectory, 0); // internal attributes
+            writeInt(centralDirectory, 0); // external attributes
+            writeInt(centralDirectory, offset);
+            centralDirectory.write(entry.name);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream(30 + entry.name.length);
+            writeInt(header, 0x04034b50);
+            writeHeader(header, version, entry);
+            header.write(entry.name);
+            header.writeTo(out);
+            out.write(entry.data);
+            offset += header.size() + entry.data.length;
+            count++;
+        }
+
+        private static void writeHeader(ByteArrayOutputStream out, int version, CompressedEntry entry) {
+            writeShort(out, version); // version needed
+            writeShort(out, FLAG_UTF8);
+            writeShort(out, entry.method);
+            writeShort(out, DOS_TIME);
+            writeShort(out, DOS_DATE);
+            writeInt(out, entry.crc);
+            writeInt(out, entry.data.length);
+            writeInt(out, entry.size);
+            writeShort(out, entry.name.length);
+            writeShort(out, 0); // extra length
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long directoryOffset = offset;
+                centralDirectory.writeTo(out);
+                ByteArrayOutputStream end = new ByteArrayOutputStream(22);
+                writeInt(end, 0x06054b50);
+                writeShort(end, 0); // disk number
+                writeShort(end, 0); // disk with central directory
+                writeShort(end, count);
+                writeShort(end, count);
+                writeInt(end, centralDirectory.size());
+                writeInt(end, directoryOffset);
+                writeShort(end, 0); // comment length
+                end.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write(value & 0xFF);
+            out.write((value >>> 8) & 0xFF);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, long value) {
+            out.write((int) (value & 0xFF));
+            out.write((int) ((value >>> 8) & 0xFF));
+            out.write((int) ((value >>> 16) & 0xFF));
+            out.write((int) ((value >>> 24) & 0xFF));
+        }
+    }
+
+    /**
+     * The result of optimizing a pack
+     */
+    public static class Result {
+        private final PackHasher.Result hash;
+        private final long sourceSize;
+        private final long size;
+        private final int entries;
+        private final int removedEntries;
+        private final long nanos;
+
+        private Result(PackHasher.Result hash, long sourceSize, long size, int entries, int removedEntries, long nanos) {
+            this.hash = hash;
+            this.sourceSize = sourceSize;
+            this.size = size;
+            this.entries = entries;
+            this.removedEntries = removedEntries;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Get the hash of the optimized zip
+         * @return The hashing result
+         */
+        public PackHasher.Result getHash() {
+            return hash;
+        }
+
+        /**
+         * Get the size of the original zips
+         * @return The size in bytes
+         */
+        public long getSourceSize() {
+            return sourceSize;
+        }
+
+        /**
+         * Get the size of the optimized zip
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get how many bytes the optimization saved
+         * @return The amount of bytes, negative if the optimized zip is larger
+         */
+        public long getSavedBytes() {
+            return sourceSize - size;
+        }
+
+        /**
+         * Get the amount of entries in the optimized zip
+         * @return The amount of entries
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * Get the amount of directory, junk and duplicate entries that were removed
+         * @return The amount of removed entries
+         */
+        public int getRemovedEntries() {
+            return removedEntries;
+        }
+
+        /**
+         * Get how long optimizing took
+         * @return The duration in milliseconds
+         */
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return sourceSize + " -> " + size + " bytes (saved " + getSavedBytes() + " bytes"
+                    + (sourceSize > 0 ? ", " + (getSavedBytes() * 100 / sourceSize) + "%" : "")
+                    + ", " + entries + " entries, " + removedEntries + " removed) in " + getMillis() + "ms";
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of which packs are registered and of their lookup tables.
+ * Changes create a new snapshot with a higher version so that readers never see partially updated lookup tables.
+ * The {@link ResourcePack} objects themselves are shared between snapshots. Changes to their hash, uuid, url,
+ * local path or format are made on them directly, so holders of an older snapshot see them right away.
+ */
+public class PackRegistry {
+
+    public static final PackRegistry EMPTY = new PackRegistry(0, new LinkedHashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+
+    private final long version;
+
+    /**
+     * lowercase packname -> ResourcePack
+     */
+    private final Map<String, ResourcePack> names;
+
+    /**
+     * pack (variant) uuid -> ResourcePack
+     */
+    private final Map<UUID, ResourcePack> uuids;
+
+    /**
+     * pack (variant) hash -> ResourcePack
+     */
+    private final Map<String, ResourcePack> hashes;
+
+    /**
+     * pack (variant) or mirror url -> ResourcePack
+     */
+    private final Map<String, ResourcePack> urls;
+
+    /**
+     * hosted path -> pack variant
+     */
+    private final Map<String, ResourcePack> hosted;
+
+    /**
+     * lowercase packname -> variants per client capabilities, filled when first needed
+     */
+    private final Map<String, VariantTable> variantTables = new ConcurrentHashMap<>();
+
+    private PackRegistry(long version, Map<String, ResourcePack> names, Map<UUID, ResourcePack> uuids,
+                         Map<String, ResourcePack> hashes, Map<String, ResourcePack> urls, Map<String, ResourcePack> hosted) {
+        this.version = version;
+        this.names = Collections.unmodifiableMap(names);
+        this.uuids = Collections.unmodifiableMap(uuids);
+        this.hashes = Collections.unmodifiableMap(hashes);
+        this.urls = Collections.unmodifiableMap(urls);
+        this.hosted = Collections.unmodifiableMap(hosted);
+    }
+
+    /**
+     * Get the version of this snapshot, every change results in a snapshot with a higher version
+     * @return The version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public ResourcePack getByName(String name) {
+        return names.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public ResourcePack getByUuid(UUID uuid) {
+        return uuids.get(uuid);
+    }
+
+    public ResourcePack getByHash(String hash) {
+        return hashes.get(hash);
+    }
+
+    public ResourcePack getByUrl(String url) {
+        return urls.get(url);
+    }
+
+    public ResourcePack getHosted(String path) {
+        return hosted.get(path);
+    }
+
+    /**
+     * Check whether a pack or variant is part of this snapshot
+     * @param pack The pack or variant instance
+     * @return <code>true</code> if this exact instance is registered or a variant of a registered pack
+     */
+    public boolean contains(ResourcePack pack) {
+        if (names.get(pack.getName().toLowerCase(Locale.ROOT)) == pack) {
+            return true;
+        }
+        for (ResourcePack registered : names.values()) {
+            if (isVariant(registered, pack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVariant(ResourcePack parent, ResourcePack pack) {
+        for (ResourcePack variant : parent.getVariants()) {
+            if (variant == pack || isVariant(variant, pack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the table of variants that clients can use for a pack
+     * @param pack The pack
+     * @return The variant table, only cached if the pack is part of this snapshot
+     */
+    public VariantTable getVariantTable(ResourcePack pack) {
+        String key = pack.getName().toLowerCase(Locale.ROOT);
+        VariantTable table = variantTables.get(key);
+        if (table == null || table.getPack() != pack) {
+            table = new VariantTable(pack);
+            if (names.get(key) == pack) {
+                variantTables.put(key, table);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get all packs in the order in which they were added
+     * @return A new list of the packs
+     */
+    public List<ResourcePack> getPacks() {
+        return new ArrayList<>(names.values());
+    }
+
+    /**
+     * Create a builder that starts out with the content of this snapshot
+     * @return The builder
+     */
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Mutable copy of a snapshot that is used to create the next one
+     */
+    static class Builder {
+        private final long version;
+        private final Map<String, ResourcePack> names;
+        private final Map<UUID, ResourcePack> uuids;
+        private final Map<String, ResourcePack> hashes;
+        private final Map<String, ResourcePack> urls;
+        private final Map<String, ResourcePack> hosted;
+
+        private Builder(PackRegistry registry) {
+            this.version = registry.version;
+            this.names = new LinkedHashMap<>(registry.names);
+            this.uuids = new HashMap<>(registry.uuids);
+            this.hashes = new HashMap<>(registry.hashes);
+            this.urls = new HashMap<>(registry.urls);
+            this.hosted = new HashMap<>(registry.hosted);
+        }
+
+        Map<String, ResourcePack> names() {
+            return names;
+        }
+
+        Map<UUID, ResourcePack> uuids() {
+            return uuids;
+        }
+
+        Map<String, ResourcePack> hashes() {
+            return hashes;
+        }
+
+        Map<String, ResourcePack> urls() {
+            return urls;
+        }
+
+        Map<String, ResourcePack> hosted() {
+            return hosted;
+        }
+
+        /**
+         * Remove everything
+         * @return This builder
+         */
+        Builder clear() {
+            names.clear();
+            uuids.clear();
+            hashes.clear();
+            urls.clear();
+            hosted.clear();
+            return this;
+        }
+
+        /**
+         * Create the next snapshot. The builder must not be used anymore afterwards.
+         * @return The new snapshot with the next version
+         */
+        PackRegistry build() {
+            return new PackRegistry(version + 1, names, uuids, hashes, urls, hosted);
+        }
+    }
+}
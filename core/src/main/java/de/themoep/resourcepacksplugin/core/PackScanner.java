@@ -0,0 +1,289 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.ZipException;
+
+/**
+ * Checks the structure and size of pack files before they are sent to players.
+ * Only the central directory is read so this is fast even for very large packs.
+ */
+public class PackScanner {
+
+    private static final int LARGEST_ENTRIES = 5;
+
+    private long maxSize = 250L * 1024 * 1024;
+    private long maxUncompressedSize = 0;
+    private long maxEntries = 0;
+    private long maxEntrySize = 0;
+
+    /**
+     * Scan a pack file
+     * @param path The path of the pack's zip file
+     * @return The report of the scan
+     * @throws IOException If the file could not be opened or read
+     */
+    public Report scan(Path path) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Report report = new Report(channel.size());
+            ZipDirectory directory;
+            try {
+                directory = ZipDirectory.read(channel);
+            } catch (ZipException e) {
+                report.errors.add("Invalid zip: " + e.getMessage());
+                report.nanos = System.nanoTime() - start;
+                return report;
+            }
+            check(directory, report);
+            report.nanos = System.nanoTime() - start;
+            return report;
+        }
+    }
+
+    private void check(ZipDirectory directory, Report report) {
+        List<ZipDirectory.Entry> entries = directory.getEntries();
+        report.entries = entries.size();
+
+        Set<String> names = new HashSet<>();
+        PriorityQueue<ZipDirectory.Entry> largest = new PriorityQueue<>(Comparator.comparingLong(ZipDirectory.Entry::getSize));
+        for (ZipDirectory.Entry entry : entries) {
+            report.uncompressedSize += entry.getSize();
+            report.compressedSize += entry.getCompressedSize();
+
+            if (!names.add(entry.getName())) {
+                report.warnings.add("Duplicate entry " + entry.getName());
+            }
+            if (entry.getName().startsWith("/") || entry.getName().contains("\\")
+                    || entry.getName().equals("..") || entry.getName().startsWith("../") || entry.getName().contains("/../")) {
+                report.warnings.add("Entry " + entry.getName() + " has an invalid path");
+            }
+            if ((entry.getFlags() & 1) != 0) {
+                report.errors.add("Entry " + entry.getName() + " is encrypted");
+            }
+            if (entry.getMethod() != 0 && entry.getMethod() != 8) {
+                report.errors.add("Entry " + entry.getName() + " uses unsupported compression method " + entry.getMethod());
+            }
+            if (maxEntrySize > 0 && entry.getSize() > maxEntrySize) {
+                report.errors.add("Entry " + entry.getName() + " is larger than " + format(maxEntrySize) + " (" + format(entry.getSize()) + ")");
+            }
+
+            largest.add(entry);
+            if (largest.size() > LARGEST_ENTRIES) {
+                largest.poll();
+            }
+        }
+
+        // local headers are at least 30 bytes plus the name so this is a lower bound of where an entry ends
+        List<ZipDirectory.Entry> byOffset = new ArrayList<>(entries);
+        byOffset.sort(Comparator.comparingLong(ZipDirectory.Entry::getLocalHeaderOffset));
+        long previousEnd = 0;
+        String previousName = null;
+        for (ZipDirectory.Entry entry : byOffset) {
+            if (entry.getLocalHeaderOffset() < previousEnd) {
+                report.errors.add("Entry " + entry.getName() + " overlaps with entry " + previousName);
+            }
+            previousEnd = entry.getLocalHeaderOffset() + 30 + entry.getName().getBytes(StandardCharsets.UTF_8).length + entry.getCompressedSize();
+            previousName = entry.getName();
+            if (previousEnd > directory.getDirectoryOffset()) {
+                report.errors.add("Entry " + entry.getName() + " extends into the central directory");
+            }
+        }
+
+        if (directory.getEntry("pack.mcmeta") == null) {
+            report.errors.add("There is no pack.mcmeta in the root of the pack");
+        }
+
+        if (maxSize > 0 && report.size > maxSize) {
+            report.errors.add("File is larger than " + format(maxSize) + " (" + format(report.size) + ")");
+        }
+        if (maxUncompressedSize > 0 && report.uncompressedSize > maxUncompressedSize) {
+            report.errors.add("Uncompressed content is larger than " + format(maxUncompressedSize) + " (" + format(report.uncompressedSize) + ")");
+        }
+        if (maxEntries > 0 && report.entries > maxEntries) {
+            report.errors.add("Pack has more than " + maxEntries + " entries (" + report.entries + ")");
+        }
+
+        List<ZipDirectory.Entry> largestList = new ArrayList<>(largest);
+        largestList.sort(Comparator.comparingLong(ZipDirectory.Entry::getSize).reversed());
+        report.largestEntries = Collections.unmodifiableList(largestList);
+    }
+
+    private static String format(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+        } else if (bytes >= 1024) {
+            return String.format("%.1f KiB", bytes / 1024.0);
+        }
+        return bytes + " bytes";
+    }
+
+    /**
+     * Set the maximum size of pack files. Clients reject packs above 250 MiB.
+     * @param maxSize The maximum size in bytes, 0 for no limit
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum size of the uncompressed content of a pack
+     * @param maxUncompressedSize The maximum size in bytes, 0 for no limit
+     */
+    public void setMaxUncompressedSize(long maxUncompressedSize) {
+        this.maxUncompressedSize = Math.max(0, maxUncompressedSize);
+    }
+
+    public long getMaxUncompressedSize() {
+        return maxUncompressedSize;
+    }
+
+    /**
+     * Set the maximum amount of entries in a pack
+     * @param maxEntries The maximum amount of entries, 0 for no limit
+     */
+    public void setMaxEntries(long maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum uncompressed size of a single entry in a pack
+     * @param maxEntrySize The maximum size in bytes, 0 for no limit
+     */
+    public void setMaxEntrySize(long maxEntrySize) {
+        this.maxEntrySize = Math.max(0, maxEntrySize);
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * The result of scanning a pack file
+     */
+    public static class Report {
+        private final long size;
+        private long entries = 0;
+        private long uncompressedSize = 0;
+        private long compressedSize = 0;
+        private List<ZipDirectory.Entry> largestEntries = Collections.emptyList();
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+        private long nanos;
+
+        private Report(long size) {
+            this.size = size;
+        }
+
+        /**
+         * Check whether the pack passed the scan
+         * @return Whether there were no errors
+         */
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        /**
+         * Get the problems that prevent the pack from being used
+         * @return The list of errors
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * Get the problems that clients can probably deal with
+         * @return The list of warnings
+         */
+        public List<String> getWarnings() {
+            return warnings;
+        }
+
+        /**
+         * Get the size of the file
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * Get the total size of all entries when uncompressed, as declared in the central directory
+         * @return The size in bytes
+         */
+        public long getUncompressedSize() {
+            return uncompressedSize;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Get the largest entries by their uncompressed size
+         * @return The largest entries, largest first
+         */
+        public List<ZipDirectory.Entry> getLargestEntries() {
+            return largestEntries;
+        }
+
+        /**
+         * Get how long the scan took
+         * @return The duration in milliseconds
+         */
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return format(size) + ", " + entries + " entries, " + format(uncompressedSize) + " uncompressed"
+                    + (largestEntries.isEmpty() ? "" : ", largest: " + largestEntries.stream()
+                            .map(e -> e.getName() + " (" + format(e.getSize()) + ")")
+                            .collect(Collectors.joining(", ")))
+                    + " (scanned in " + getMillis() + "ms)";
+        }
+    }
+}
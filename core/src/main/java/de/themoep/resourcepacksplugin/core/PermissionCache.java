@@ -0,0 +1,143 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of pack permission checks per player session so that selecting packs
+ * doesn't need to ask the permission provider again for every pack and variant.
+ */
+public class PermissionCache {
+
+    private final ResourcepacksPlugin plugin;
+
+    /**
+     * playerid -> permission -> cached result
+     */
+    private final Map<UUID, Map<String, Entry>> sessions = new ConcurrentHashMap<>();
+
+    private long ttl = TimeUnit.SECONDS.toNanos(60);
+
+    public PermissionCache(ResourcepacksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Check whether a player has a permission, using the cached result if it hasn't expired yet
+     * @param playerId      The UUID of the player
+     * @param permission    The permission to check
+     * @return <code>true</code> if the player has the permission; <code>false</code> if not
+     */
+    public boolean hasPermission(UUID playerId, String permission) {
+        if (ttl <= 0 || permission == null) {
+            return plugin.checkPermission(playerId, permission);
+        }
+        Map<String, Entry> session = getOrStartSession(playerId);
+        if (session == null) {
+            return plugin.checkPermission(playerId, permission);
+        }
+        long now = System.nanoTime();
+        Entry entry = session.get(permission);
+        if (entry == null || now - entry.checked > ttl) {
+            entry = new Entry(plugin.checkPermission(playerId, permission), now);
+            session.put(permission, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Get the current session of cached permissions of a player. A new session is started whenever the cached
+     * permissions of the player are invalidated so results derived from their permissions can be bound to it.
+     * @param playerId The UUID of the player
+     * @return The session or <code>null</code> if the cache is disabled or the player isn't online
+     */
+    Object getSession(UUID playerId) {
+        if (ttl <= 0) {
+            return null;
+        }
+        return getOrStartSession(playerId);
+    }
+
+    /**
+     * Get the session of a player, only starting a new one if the player is online. Checks that finish after
+     * the player disconnected would otherwise start a session that is never invalidated again.
+     * @param playerId The UUID of the player
+     * @return The session or <code>null</code> if the player isn't online
+     */
+    private Map<String, Entry> getOrStartSession(UUID playerId) {
+        Map<String, Entry> session = sessions.get(playerId);
+        if (session == null && plugin.getPlayer(playerId) != null) {
+            session = sessions.computeIfAbsent(playerId, id -> new ConcurrentHashMap<>());
+            if (plugin.getPlayer(playerId) == null) {
+                // disconnected in the meantime, the session might have been started after it was invalidated
+                sessions.remove(playerId, session);
+                return null;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Forget the cached permissions of a player, e.g. when they disconnect or their permissions changed
+     * @param playerId The UUID of the player
+     */
+    public void invalidate(UUID playerId) {
+        sessions.remove(playerId);
+    }
+
+    /**
+     * Forget all cached permissions
+     */
+    public void invalidateAll() {
+        sessions.clear();
+    }
+
+    /**
+     * Set how long a cached permission is used before the permission provider is asked again
+     * @param ttl The time in milliseconds, 0 to disable the cache
+     */
+    public void setTtl(long ttl) {
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttl));
+        if (this.ttl == 0) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Get how long a cached permission is used
+     * @return The time in milliseconds, 0 if the cache is disabled
+     */
+    public long getTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(ttl);
+    }
+
+    private static class Entry {
+        private final boolean value;
+        private final long checked;
+
+        private Entry(boolean value, long checked) {
+            this.value = value;
+            this.checked = checked;
+        }
+    }
+}
@@ -25,4 +25,13 @@ public interface PluginLogger {
     void log(Level info, String message);
 
     void log(Level info, String message, Throwable e);
+
+    /**
+     * Check whether messages with a certain level end up in the log
+     * @param level The level
+     * @return Whether messages with that level are logged
+     */
+    default boolean isLoggable(Level level) {
+        return true;
+    }
 }
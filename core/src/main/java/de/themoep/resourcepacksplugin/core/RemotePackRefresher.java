@@ -0,0 +1,144 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Periodically checks the urls of remote packs for changes and updates their hashes.
+ * Packs are checked one after another with a delay between requests so that a lot
+ * of packs on the same host don't result in a burst of requests.
+ */
+public class RemotePackRefresher {
+
+    private final ResourcepacksPlugin plugin;
+
+    private final ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> task = null;
+
+    private long interval = 0;
+
+    private long requestDelay = 2000;
+
+    public RemotePackRefresher(ResourcepacksPlugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Remote Pack Refresher")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Start checking the remote packs. If it was already started then the previous schedule is replaced.
+     * @param interval The time between two rounds of checks in milliseconds, 0 to stop checking
+     */
+    public synchronized void start(long interval) {
+        stop();
+        this.interval = Math.max(0, interval);
+        if (this.interval > 0) {
+            task = scheduler.scheduleWithFixedDelay(this::refreshAll, this.interval, this.interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop checking the remote packs, a running round of checks is interrupted
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(true);
+            task = null;
+        }
+    }
+
+    /**
+     * Stop checking and shut down the refresher thread
+     */
+    public synchronized void close() {
+        stop();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Set the maximum amount of requests that should be sent to check packs
+     * @param requestsPerMinute The amount of requests per minute, at least 1
+     */
+    public void setRequestsPerMinute(int requestsPerMinute) {
+        this.requestDelay = TimeUnit.MINUTES.toMillis(1) / Math.max(1, requestsPerMinute);
+    }
+
+    /**
+     * Get the time between checks of the configured packs
+     * @return The interval in milliseconds, 0 if the refresher is stopped
+     */
+    public long getInterval() {
+        return task != null ? interval : 0;
+    }
+
+    private void refreshAll() {
+        PackManager pm = plugin.getPackManager();
+        List<Map.Entry<ResourcePack, ResourcePack>> remotePacks = new ArrayList<>();
+        for (ResourcePack pack : pm.getPacks()) {
+            if (pack.getVariants().isEmpty()) {
+                if (!pack.getUrl().isEmpty()) {
+                    remotePacks.add(new AbstractMap.SimpleEntry<>(pack, pack));
+                }
+            } else {
+                for (ResourcePack variant : pack.getVariants()) {
+                    if (!variant.getUrl().isEmpty()) {
+                        remotePacks.add(new AbstractMap.SimpleEntry<>(variant, pack));
+                    }
+                }
+            }
+        }
+
+        int changed = 0;
+        try {
+            for (int i = 0; i < remotePacks.size(); i++) {
+                if (i > 0) {
+                    Thread.sleep(requestDelay);
+                }
+                Map.Entry<ResourcePack, ResourcePack> entry = remotePacks.get(i);
+                try {
+                    if (pm.refreshRemoteHash(entry.getKey(), entry.getValue())) {
+                        changed++;
+                    }
+                } catch (Exception e) {
+                    plugin.log(Level.WARNING, "Unable to check remote pack " + entry.getKey().getName() + " at " + entry.getKey().getUrl() + " for changes: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        plugin.logDebug("Checked " + remotePacks.size() + " remote packs for changes, " + changed + " changed");
+        if (changed > 0) {
+            plugin.runTask(plugin::saveConfigChanges);
+        }
+    }
+}
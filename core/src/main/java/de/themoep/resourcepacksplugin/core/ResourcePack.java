@@ -23,6 +23,7 @@ import com.google.common.io.BaseEncoding;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -37,9 +38,13 @@ public class ResourcePack {
     private final String name;
     private UUID uuid;
     private String url;
+    private List<String> mirrors = Collections.emptyList();
     private String localPath;
     private byte[] hash = new byte[0];
+    private byte[] contentHash = new byte[0];
     private int format;
+    private int minFormat = 0;
+    private int maxFormat = 0;
     private int version;
     private boolean restricted;
     private String permission;
@@ -225,6 +230,22 @@ public class ResourcePack {
         this.url = url;
     }
 
+    /**
+     * Get the additional urls that serve the exact same file as the pack's url
+     * @return An unmodifiable list of mirror urls, empty if the pack has none
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Set the additional urls that serve the exact same file as the pack's url
+     * @param mirrors The mirror urls
+     */
+    void setMirrors(List<String> mirrors) {
+        this.mirrors = mirrors == null || mirrors.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(mirrors));
+    }
+
     /**
      * Get the hash set for this resourcepack. Ideally this is the zip file's sha1 hash.
      * @return The 40 digit lowercase hash
@@ -248,6 +269,30 @@ public class ResourcePack {
         this.hash = hash;
     }
 
+    /**
+     * Get the fingerprint of the pack's content which only depends on the names and
+     * uncompressed contents of its entries and not on how they were zipped.
+     * @return The 40 digit lowercase content hash or an empty string if it isn't known
+     */
+    public String getContentHash() {
+        return BaseEncoding.base16().lowerCase().encode(contentHash);
+    }
+
+    public void setContentHash(String contentHash) {
+        setRawContentHash(BaseEncoding.base16().lowerCase().decode(contentHash.toLowerCase(Locale.ROOT)));
+    }
+
+    public byte[] getRawContentHash() {
+        return contentHash;
+    }
+
+    public void setRawContentHash(byte[] contentHash) {
+        if (contentHash.length > 0 && contentHash.length != 20) {
+            throw new IllegalArgumentException("Content hash needs to be either 0 or 20 bytes long!");
+        }
+        this.contentHash = contentHash;
+    }
+
     /**
      * Get the local path where this resourcepack is located at on your file system
      * @return The path as a string
@@ -284,6 +329,47 @@ public class ResourcePack {
         return true;
     }
 
+    /**
+     * Get the lowest pack format that this pack supports
+     * @return The lowest supported format, the pack's format if it doesn't declare a range
+     */
+    public int getMinFormat() {
+        return minFormat > 0 ? minFormat : format;
+    }
+
+    /**
+     * Get the highest pack format that this pack supports
+     * @return The highest supported format or 0 if the pack doesn't declare a range
+     */
+    public int getMaxFormat() {
+        return maxFormat;
+    }
+
+    /**
+     * Set the range of pack formats that this pack supports as declared by
+     * the supported_formats and overlays in its pack.mcmeta
+     * @param minFormat The lowest supported format
+     * @param maxFormat The highest supported format, 0 if the pack doesn't declare a range
+     * @return Whether or not the range changed
+     */
+    public boolean setSupportedFormats(int minFormat, int maxFormat) {
+        if (this.minFormat == minFormat && this.maxFormat == maxFormat) {
+            return false;
+        }
+        this.minFormat = minFormat;
+        this.maxFormat = maxFormat;
+        return true;
+    }
+
+    /**
+     * Check whether this pack declares that it supports a certain pack format
+     * @param format The pack format
+     * @return Whether the format is inside the supported range, always false if the pack doesn't declare one
+     */
+    public boolean isSupportedFormat(int format) {
+        return maxFormat > 0 && getMinFormat() <= format && format <= maxFormat;
+    }
+
     /**
      * Get the pack Minecraft protocol version
      * @return The Minecraft protocol version as an int
@@ -401,14 +487,14 @@ public class ResourcePack {
         ResourcePack pack = (ResourcePack) o;
         return format == pack.format && version == pack.version && restricted == pack.restricted
                 && Objects.equals(name, pack.name) && Objects.equals(uuid, pack.uuid)
-                && Objects.equals(url, pack.url) && Objects.equals(localPath, pack.localPath)
+                && Objects.equals(url, pack.url) && Objects.equals(mirrors, pack.mirrors) && Objects.equals(localPath, pack.localPath)
                 && Arrays.equals(hash, pack.hash) && Objects.equals(permission, pack.permission)
                 && type == pack.type && Objects.equals(variants, pack.variants);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(name, uuid, url, localPath, format, version, restricted, permission, type, variants);
+        int result = Objects.hash(name, uuid, url, mirrors, localPath, format, version, restricted, permission, type, variants);
         result = 31 * result + Arrays.hashCode(hash);
         return result;
     }
@@ -432,6 +518,7 @@ public class ResourcePack {
         Map<String, Object> map = new LinkedHashMap<>();
 
         map.put("url", url == null || url.isEmpty() || !variants.isEmpty()  ? null : url);
+        map.put("mirrors", mirrors.isEmpty() || !variants.isEmpty() ? null : mirrors);
         map.put("uuid", uuid == null || !variants.isEmpty() ? null : uuid.toString());
         map.put("hash", hash == null || hash.length == 0 || !variants.isEmpty()  ? null : getHash());
         map.put("local-path", localPath == null || localPath.isEmpty() || !variants.isEmpty() ? null : localPath);
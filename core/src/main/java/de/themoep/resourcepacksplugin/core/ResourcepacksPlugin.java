@@ -26,6 +26,7 @@ import java.io.File;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
 /**
@@ -189,6 +190,14 @@ public interface ResourcepacksPlugin {
      */
     Level getLogLevel();
 
+    /**
+     * Check whether debug messages end up in the log, used to skip building messages that would be discarded
+     * @return Whether debug messages are logged
+     */
+    default boolean isDebugLoggable() {
+        return getLogLevel() != Level.OFF && getPluginLogger().isLoggable(getLogLevel());
+    }
+
     /**
      * Get an online player by its UUID
      * @param playerId The player ID
@@ -285,6 +294,17 @@ public interface ResourcepacksPlugin {
         return ClientType.ORIGINAL;
     }
 
+    /**
+     * Get what the client of a player supports. Implementations should look this up once when the player
+     * logs in and keep it until they disconnect as it is needed whenever packs are checked.
+     * @param playerId The UUID of the player
+     * @return The capabilities of the player's client
+     */
+    default ClientCapabilities getClientCapabilities(UUID playerId) {
+        return new ClientCapabilities(getPlayerProtocol(playerId), getPlayerPackFormat(playerId),
+                getPlayerClientType(playerId), supportsMultiplePacks(playerId));
+    }
+
     /**
      * Call the ResourcePackSelectEvent on the corresponding server
      * @param playerId The UUID of the player
@@ -302,6 +322,27 @@ public interface ResourcepacksPlugin {
      */
     IResourcePackSendEvent callPackSendEvent(UUID playerId, ResourcePack pack);
 
+    /**
+     * Call the ResourcePackSelectEvent on the corresponding server without waiting for it to complete
+     * @param playerId The UUID of the player
+     * @param packs    The ResourcePacks that were selected or an empty list if none were selected
+     * @param status   The status of the selection
+     * @return A future for the ResourcePackSelectEvent interface which might have been modified (especially the pack)
+     */
+    default CompletableFuture<IResourcePackSelectEvent> callPackSelectEventAsync(UUID playerId, List<ResourcePack> packs, IResourcePackSelectEvent.Status status) {
+        return CompletableFuture.completedFuture(callPackSelectEvent(playerId, packs, status));
+    }
+
+    /**
+     * Call the ResourcePackSendEvent on the corresponding server without waiting for it to complete
+     * @param playerId The UUID of the player
+     * @param pack The ResourcePack that was send
+     * @return A future for the ResourcePackSendEvent interface which might have been modified or cancelled
+     */
+    default CompletableFuture<IResourcePackSendEvent> callPackSendEventAsync(UUID playerId, ResourcePack pack) {
+        return CompletableFuture.completedFuture(callPackSendEvent(playerId, pack));
+    }
+
     /**
      * Check whether or not a certain player is currently logged in with auth plugins (currently supports AuthMe Reloaded)
      * @param playerId The UUID of the player
@@ -21,12 +21,12 @@ package de.themoep.resourcepacksplugin.core;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * Created by Phoenix616 on 04.11.2016.
@@ -71,9 +71,12 @@ public class UserManager {
      * @return The resourcepack sthe player has selected, an empty list if there is none
      */
     public List<ResourcePack> getUserPacks(UUID playerid) {
-        return userPacksMap.get(playerid).stream()
-                .map(plugin.getPackManager()::getByName)
-                .collect(Collectors.toList());
+        Collection<String> packNames = userPacksMap.get(playerid);
+        List<ResourcePack> packs = new ArrayList<>(packNames.size());
+        for (String packName : packNames) {
+            packs.add(plugin.getPackManager().getByName(packName));
+        }
+        return packs;
     }
 
     /**
@@ -178,6 +181,7 @@ public class UserManager {
         }
         userPackTime.remove(playerId);
         clearUserPacks(playerId);
+        plugin.getPackManager().invalidatePackDecision(playerId);
         plugin.sendPackInfo(playerId);
     }
     
@@ -0,0 +1,116 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The variants of a pack that clients with a certain type, pack format and protocol version can use.
+ * The variants are computed once per combination, only the permissions have to be checked per player.
+ */
+public class VariantTable {
+
+    private final ResourcePack pack;
+
+    private final Map<Key, List<ResourcePack>> eligible = new ConcurrentHashMap<>();
+
+    VariantTable(ResourcePack pack) {
+        this.pack = pack;
+    }
+
+    /**
+     * Get the pack that this table is for
+     * @return The pack
+     */
+    public ResourcePack getPack() {
+        return pack;
+    }
+
+    /**
+     * Get the variants that a client can use, in the order in which they should be tried.
+     * Variants that declare support for the client's pack format come first, followed by
+     * ones that only have a lower minimum format in the order in which they were configured.
+     * @param type          The type of the client
+     * @param packFormat    The pack format of the client, -1 if unknown
+     * @param protocol      The protocol version of the client, -1 if unknown
+     * @return The eligible variants
+     */
+    public List<ResourcePack> getEligibleVariants(ClientType type, int packFormat, int protocol) {
+        if (protocol < 0) {
+            packFormat = -1;
+        }
+        return eligible.computeIfAbsent(new Key(type, packFormat, protocol), this::compute);
+    }
+
+    private List<ResourcePack> compute(Key key) {
+        List<ResourcePack> preferred = new ArrayList<>();
+        List<ResourcePack> fallbacks = new ArrayList<>();
+        for (ResourcePack variant : pack.getVariants()) {
+            boolean rightFormat = variant.getType() == key.type
+                    && (key.protocol < 0 /* unknown version */ || (
+                            variant.getMinFormat() <= key.packFormat
+                                    && variant.getVersion() <= key.protocol));
+            if (!rightFormat) {
+                continue;
+            }
+            if (variant.getMaxFormat() <= 0 || variant.isSupportedFormat(key.packFormat)) {
+                preferred.add(variant);
+            } else {
+                // the client is newer than what this variant declares, only use it if none supports it exactly
+                fallbacks.add(variant);
+            }
+        }
+        preferred.addAll(fallbacks);
+        return Collections.unmodifiableList(preferred);
+    }
+
+    private static class Key {
+        private final ClientType type;
+        private final int packFormat;
+        private final int protocol;
+
+        private Key(ClientType type, int packFormat, int protocol) {
+            this.type = type;
+            this.packFormat = packFormat;
+            this.protocol = protocol;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return packFormat == key.packFormat && protocol == key.protocol && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, packFormat, protocol);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a zip file. Only the end of the file is read to get the
+ * list of entries, the content of single entries can be read on demand.
+ */
+public class ZipDirectory {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final long fileSize;
+    private final long directoryOffset;
+    private final long directorySize;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    private ZipDirectory(long fileSize, long directoryOffset, long directorySize, List<Entry> entries) {
+        this.fileSize = fileSize;
+        this.directoryOffset = directoryOffset;
+        this.directorySize = directorySize;
+        this.entries = Collections.unmodifiableList(entries);
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            byName.put(entry.getName(), entry);
+        }
+        this.entriesByName = byName;
+    }
+
+    /**
+     * Read the central directory of a zip file
+     * @param channel The channel of the zip file
+     * @return The central directory
+     * @throws ZipException If the file is not a valid zip
+     * @throws IOException If the file could not be read
+     */
+    public static ZipDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE) {
+            throw new ZipException("File is too small to be a zip");
+        }
+
+        int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                int commentLength = tail.getShort(i + 20) & 0xFFFF;
+                if (i + EOCD_SIZE + commentLength == tailSize) {
+                    eocd = i;
+                    break;
+                }
+                if (eocd < 0) {
+                    // comment length doesn't match, only use it if there is no better one
+                    eocd = i;
+                }
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory record not found");
+        }
+
+        long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        if (eocd >= ZIP64_LOCATOR_SIZE && tail.getInt(eocd - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64EocdOffset = tail.getLong(eocd - ZIP64_LOCATOR_SIZE + 8);
+            if (zip64EocdOffset < 0 || zip64EocdOffset + 56 > fileSize) {
+                throw new ZipException("Invalid zip64 end of central directory offset");
+            }
+            ByteBuffer zip64Eocd = readFully(channel, zip64EocdOffset, 56);
+            if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new ZipException("Invalid zip64 end of central directory record");
+            }
+            entryCount = zip64Eocd.getLong(32);
+            directorySize = zip64Eocd.getLong(40);
+            directoryOffset = zip64Eocd.getLong(48);
+        }
+
+        long directoryEnd = fileSize - tailSize + eocd;
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > directoryEnd) {
+            throw new ZipException("Central directory is outside of the file");
+        }
+        if (directorySize > Integer.MAX_VALUE || entryCount > directorySize / 46) {
+            throw new ZipException("Invalid central directory size " + directorySize + " for " + entryCount + " entries");
+        }
+
+        ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) entryCount);
+        for (long i = 0; i < entryCount; i++) {
+            entries.add(readEntry(directory));
+        }
+        return new ZipDirectory(fileSize, directoryOffset, directorySize, entries);
+    }
+
+    private static Entry readEntry(ByteBuffer directory) throws ZipException {
+        if (directory.remaining() < 46 || directory.getInt() != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid central directory header at " + directory.position());
+        }
+        directory.getShort(); // version made by
+        directory.getShort(); // version needed
+        int flags = directory.getShort() & 0xFFFF;
+        int method = directory.getShort() & 0xFFFF;
+        directory.getInt(); // time and date
+        long crc = directory.getInt() & 0xFFFFFFFFL;
+        long compressedSize = directory.getInt() & 0xFFFFFFFFL;
+        long size = directory.getInt() & 0xFFFFFFFFL;
+        int nameLength = directory.getShort() & 0xFFFF;
+        int extraLength = directory.getShort() & 0xFFFF;
+        int commentLength = directory.getShort() & 0xFFFF;
+        directory.getShort(); // disk number
+        directory.getShort(); // internal attributes
+        directory.getInt(); // external attributes
+        long localHeaderOffset = directory.getInt() & 0xFFFFFFFFL;
+        if (directory.remaining() < nameLength + extraLength + commentLength) {
+            throw new ZipException("Central directory header is truncated");
+        }
+        byte[] nameBytes = new byte[nameLength];
+        directory.get(nameBytes);
+
+        int extraEnd = directory.position() + extraLength;
+        while (directory.position() + 4 <= extraEnd) {
+            int id = directory.getShort() & 0xFFFF;
+            int length = directory.getShort() & 0xFFFF;
+            int dataEnd = directory.position() + length;
+            if (dataEnd > extraEnd) {
+                throw new ZipException("Extra field is truncated");
+            }
+            if (id == 0x0001) {
+                if (size == 0xFFFFFFFFL && directory.position() + 8 <= dataEnd) {
+                    size = directory.getLong();
+                }
+                if (compressedSize == 0xFFFFFFFFL && directory.position() + 8 <= dataEnd) {
+                    compressedSize = directory.getLong();
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL && directory.position() + 8 <= dataEnd) {
+                    localHeaderOffset = directory.getLong();
+                }
+            }
+            directory.position(dataEnd);
+        }
+        directory.position(extraEnd + commentLength);
+
+        return new Entry(new String(nameBytes, StandardCharsets.UTF_8), flags, method, crc, compressedSize, size, localHeaderOffset);
+    }
+
+    /**
+     * Read and decompress the content of an entry
+     * @param channel   The channel of the zip file
+     * @param entry     The entry to read
+     * @param maxSize   The maximum size of the content that should be read
+     * @return The uncompressed content
+     * @throws ZipException If the entry is invalid, too large, encrypted or uses an unsupported compression method
+     * @throws IOException If the file could not be read
+     */
+    public byte[] readContent(FileChannel channel, Entry entry, int maxSize) throws IOException {
+        if (entry.getSize() > maxSize) {
+            throw new ZipException("Entry " + entry.getName() + " is larger than " + maxSize + " bytes");
+        }
+        if ((entry.getFlags() & 1) != 0) {
+            throw new ZipException("Entry " + entry.getName() + " is encrypted");
+        }
+        long dataOffset = getDataOffset(channel, entry);
+        if (entry.getCompressedSize() > Integer.MAX_VALUE || dataOffset + entry.getCompressedSize() > directoryOffset) {
+            throw new ZipException("Data of entry " + entry.getName() + " is outside of the file");
+        }
+        ByteBuffer compressed = readFully(channel, dataOffset, (int) entry.getCompressedSize());
+        byte[] content;
+        if (entry.getMethod() == METHOD_STORED) {
+            content = new byte[compressed.remaining()];
+            compressed.get(content);
+        } else if (entry.getMethod() == METHOD_DEFLATED) {
+            byte[] input = new byte[compressed.remaining()];
+            compressed.get(input);
+            content = new byte[(int) entry.getSize()];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                int length = inflater.inflate(content);
+                if (length != content.length) {
+                    throw new ZipException("Entry " + entry.getName() + " is shorter than its declared size");
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data in entry " + entry.getName() + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new ZipException("Unsupported compression method " + entry.getMethod() + " of entry " + entry.getName());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        if (crc.getValue() != entry.getCrc()) {
+            throw new ZipException("CRC of entry " + entry.getName() + " does not match");
+        }
+        return content;
+    }
+
+    /**
+     * Get the position at which the data of an entry starts by reading its local header
+     * @param channel   The channel of the zip file
+     * @param entry     The entry
+     * @return The position of the entry's data
+     * @throws ZipException If the local header is invalid
+     * @throws IOException If the file could not be read
+     */
+    public long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        if (entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE > directoryOffset) {
+            throw new ZipException("Local header of entry " + entry.getName() + " is outside of the file");
+        }
+        ByteBuffer header = readFully(channel, entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of entry " + entry.getName());
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the size of the zip file
+     * @return The size in bytes
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Get the position at which the central directory starts
+     * @return The offset in bytes
+     */
+    public long getDirectoryOffset() {
+        return directoryOffset;
+    }
+
+    /**
+     * Get the size of the central directory
+     * @return The size in bytes
+     */
+    public long getDirectorySize() {
+        return directorySize;
+    }
+
+    /**
+     * Get all entries in the order of the central directory
+     * @return An unmodifiable list of entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get an entry by its name. If multiple entries have the same name then the last one is returned.
+     * @param name The name of the entry
+     * @return The entry or null if there is none with that name
+     */
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * An entry of the central directory
+     */
+    public static class Entry {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(String name, int flags, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Get the uncompressed size that the entry declares
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
@@ -117,7 +117,7 @@ public class UsePackCommandExecutor extends PluginCommandExecutor {
             if (packs.size() > 0) {
                 List<ResourcePack> userPacks = sender != null ? plugin.getUserManager().getUserPacks(sender.getUniqueId()) : Collections.emptyList();
                 List<ResourcePack> applicablePacks = sender == null ? packs : packs.stream()
-                        .filter(pack -> pack.getFormat() <= plugin.getPlayerPackFormat(sender.getUniqueId())
+                        .filter(pack -> pack.getMinFormat() <= plugin.getPlayerPackFormat(sender.getUniqueId())
                                 && pack.getVersion() <= plugin.getPlayerProtocol(sender.getUniqueId())
                                 && pack.getType() == plugin.getPlayerClientType(sender.getUniqueId())
                                 && (!pack.isRestricted() || plugin.checkPermission(sender, pack.getPermission())))
@@ -0,0 +1,149 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the selection of mirrors against local stand-ins for the pack's hosts that respond after a set delay
+ */
+class MirrorHealthCheckerTest {
+
+    @TempDir
+    Path folder;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private PackManager packManager;
+
+    @BeforeEach
+    void setUp() {
+        packManager = new TestPlugin(folder).init().get().getPackManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        packManager.close();
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void selectsFastestMirror() throws IOException {
+        ResourcePack pack = addPack(host(300, 200), host(0, 200), host(100, 200));
+        packManager.getMirrorHealthChecker().checkAll();
+
+        assertEquals(pack.getMirrors().get(0), packManager.getPackUrl(pack));
+        assertTrue(packManager.isPackUrl(pack, pack.getUrl()));
+    }
+
+    @Test
+    void skipsUnavailableMirrors() throws IOException {
+        String down = host(0, 200);
+        servers.remove(servers.size() - 1).stop(0);
+        ResourcePack pack = addPack(host(200, 200), host(0, 503), down);
+        packManager.getMirrorHealthChecker().checkAll();
+
+        assertFalse(packManager.getMirrorHealthChecker().getStatus(pack.getMirrors().get(0)).isAvailable());
+        assertFalse(packManager.getMirrorHealthChecker().getStatus(down).isAvailable());
+        assertEquals(pack.getUrl(), packManager.getPackUrl(pack));
+    }
+
+    @Test
+    void skipsMirrorsThatTimeOut() throws IOException {
+        ResourcePack pack = addPack(host(100, 200), host(2000, 200));
+        packManager.getMirrorHealthChecker().setTimeout(500);
+        packManager.getMirrorHealthChecker().checkAll();
+
+        assertFalse(packManager.getMirrorHealthChecker().getStatus(pack.getMirrors().get(0)).isAvailable());
+        assertEquals(pack.getUrl(), packManager.getPackUrl(pack));
+    }
+
+    @Test
+    void usesMainUrlIfNothingIsAvailable() throws IOException {
+        ResourcePack pack = addPack(host(0, 500), host(0, 404));
+        packManager.getMirrorHealthChecker().checkAll();
+
+        assertEquals(pack.getUrl(), packManager.getPackUrl(pack));
+    }
+
+    @Test
+    void spreadsDownloadsByLatency() throws IOException {
+        ResourcePack pack = addPack(host(300, 200), host(100, 200));
+        packManager.getMirrorHealthChecker().setSelection(MirrorHealthChecker.Selection.WEIGHTED);
+        packManager.getMirrorHealthChecker().checkAll();
+
+        Map<String, Integer> selected = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            selected.merge(packManager.getPackUrl(pack), 1, Integer::sum);
+        }
+        int main = selected.getOrDefault(pack.getUrl(), 0);
+        int mirror = selected.getOrDefault(pack.getMirrors().get(0), 0);
+        assertEquals(400, main + mirror);
+        // weights are inversely proportional to the latency, so roughly three times as many for the mirror
+        assertTrue(mirror > main * 2 && mirror < main * 4, "main: " + main + ", mirror: " + mirror);
+    }
+
+    private ResourcePack addPack(String url, String... mirrors) {
+        ResourcePack pack = new ResourcePack("test", url, "");
+        pack.setMirrors(Arrays.asList(mirrors));
+        packManager.addPack(pack);
+        return pack;
+    }
+
+    /**
+     * Start a local stand-in for a host of the pack
+     * @param delay     How long to wait before responding in milliseconds
+     * @param status    The status to respond with
+     * @return The url of the pack on the host
+     */
+    private String host(long delay, int status) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/pack.zip";
+    }
+}
@@ -0,0 +1,157 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Enforces how much memory applying the packs of a player that already has them may allocate,
+ * measured with the per-thread allocation counter of the JVM.
+ */
+class PackManagerAllocationTest {
+
+    /**
+     * Upper limit of bytes that one steady-state {@link PackManager#applyPack(ResourcepacksPlayer, String)} may allocate.
+     * About 1.8kB are used at the moment including the argument arrays of the calls to the test plugin proxy,
+     * mostly for the select event and the sets of the decided packs.
+     */
+    private static final long MAX_BYTES_PER_OP = 2560;
+
+    private static final int WARMUP = 100000;
+    private static final int OPERATIONS = 200000;
+
+    @TempDir
+    Path folder;
+
+    private PackManager packManager;
+    private ResourcepacksPlayer player;
+
+    @BeforeEach
+    void setUp() {
+        ClientCapabilities capabilities = new ClientCapabilities(767, 34, ClientType.ORIGINAL, true);
+        TestPlugin plugin = new TestPlugin(folder)
+                .on("getClientCapabilities", (proxy, method, args) -> capabilities)
+                .on("getPlayerProtocol", (proxy, method, args) -> capabilities.getProtocol())
+                .on("getPlayerPackFormat", (proxy, method, args) -> capabilities.getPackFormat())
+                .on("supportsMultiplePacks", (proxy, method, args) -> true)
+                .on("checkPermission", (proxy, method, args) -> true)
+                .on("callPackSelectEvent", (proxy, method, args) -> new SelectEvent((UUID) args[0],
+                        (List<ResourcePack>) args[1], (IResourcePackSelectEvent.Status) args[2]))
+                .init();
+        packManager = plugin.get().getPackManager();
+
+        packManager.init();
+        for (String name : new String[]{"lobby", "ui"}) {
+            ResourcePack pack = new ResourcePack(name, "http://localhost/" + name + ".zip",
+                    name.equals("ui") ? "1111111111111111111111111111111111111111" : "2222222222222222222222222222222222222222");
+            pack.setRestricted(true);
+            pack.setPermission("test." + name);
+            packManager.addPack(pack);
+        }
+        PackAssignment assignment = new PackAssignment("lobbies");
+        assignment.setRegex(Pattern.compile("lobby-\\d+"));
+        assignment.addPack("lobby");
+        assignment.addPack("ui");
+        packManager.addAssignment(assignment);
+        packManager.publishPacks();
+
+        player = new ResourcepacksPlayer("Alex", UUID.randomUUID());
+        plugin.get().getUserManager().addUserPack(player.getUniqueId(), packManager.getByName("lobby"));
+        plugin.get().getUserManager().addUserPack(player.getUniqueId(), packManager.getByName("ui"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        packManager.close();
+    }
+
+    @Test
+    void applyingAppliedPacksStaysWithinBudget() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "Allocation counter not available");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(),
+                "Allocation counter not enabled");
+
+        String[] servers = new String[8];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = "lobby-" + i;
+        }
+        // the player already has both packs so nothing gets sent
+        assertEquals(2, packManager.getApplicablePacks(player, servers[0]).size());
+        assertTrue(packManager.applyPack(player, servers[0]).isEmpty());
+
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            packManager.applyPack(player, servers[i & 7]);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < OPERATIONS; i++) {
+            packManager.applyPack(player, servers[i & 7]);
+        }
+        long bytesPerOp = (threads.getThreadAllocatedBytes(threadId) - before) / OPERATIONS;
+        assertTrue(bytesPerOp <= MAX_BYTES_PER_OP, "applyPack allocated " + bytesPerOp + " bytes/op, limit is " + MAX_BYTES_PER_OP);
+    }
+
+    private static class SelectEvent implements IResourcePackSelectEvent {
+        private final UUID playerId;
+        private final List<ResourcePack> packs;
+        private Status status;
+
+        private SelectEvent(UUID playerId, List<ResourcePack> packs, Status status) {
+            this.playerId = playerId;
+            this.packs = packs;
+            this.status = status;
+        }
+
+        @Override
+        public UUID getPlayerId() {
+            return playerId;
+        }
+
+        @Override
+        public List<ResourcePack> getPacks() {
+            return packs;
+        }
+
+        @Override
+        public Status getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+    }
+}
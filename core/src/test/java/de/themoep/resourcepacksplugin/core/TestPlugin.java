@@ -0,0 +1,115 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Minimal plugin for tests. Methods that aren't implemented here or by a test
+ * do nothing and return <code>null</code>, <code>false</code> or 0.
+ */
+class TestPlugin implements InvocationHandler {
+
+    private final Path dataFolder;
+    private final Map<String, InvocationHandler> methods = new HashMap<>();
+    private final ResourcepacksPlugin plugin;
+    private PackManager packManager;
+    private UserManager userManager;
+
+    TestPlugin(Path dataFolder) {
+        this.dataFolder = dataFolder;
+        this.plugin = (ResourcepacksPlugin) Proxy.newProxyInstance(TestPlugin.class.getClassLoader(),
+                new Class<?>[]{ResourcepacksPlugin.class}, this);
+    }
+
+    /**
+     * Create the managers of the plugin
+     * @return This test plugin
+     */
+    TestPlugin init() {
+        packManager = new PackManager(plugin);
+        userManager = new UserManager(plugin);
+        return this;
+    }
+
+    /**
+     * Implement a method of the plugin
+     * @param name      The name of the method, all overloads use the same implementation
+     * @param handler   The implementation
+     * @return This test plugin
+     */
+    TestPlugin on(String name, InvocationHandler handler) {
+        methods.put(name, handler);
+        return this;
+    }
+
+    ResourcepacksPlugin get() {
+        return plugin;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        InvocationHandler handler = methods.get(method.getName());
+        if (handler != null) {
+            return handler.invoke(proxy, method, args);
+        }
+        switch (method.getName()) {
+            case "getName":
+                return "Test";
+            case "getVersion":
+                return "test";
+            case "getDataFolder":
+                return dataFolder.toFile();
+            case "getPackManager":
+                return packManager;
+            case "getUserManager":
+                return userManager;
+            case "getLogLevel":
+                return Level.INFO;
+            case "isEnabled":
+                return true;
+            case "getConfigMap":
+                return args[0];
+            case "runTask":
+            case "runAsyncTask":
+                ((Runnable) args[0]).run();
+                return 0;
+            case "log":
+                if (((Level) args[0]).intValue() >= Level.WARNING.intValue()) {
+                    System.err.println(args[1]);
+                }
+                return null;
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
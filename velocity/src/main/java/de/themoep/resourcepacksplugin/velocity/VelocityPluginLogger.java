@@ -50,4 +50,18 @@ public class VelocityPluginLogger implements LangLogger, PluginLogger {
             logger.error(message, throwable);
         }
     }
+
+    @Override
+    public boolean isLoggable(Level level) {
+        if (level.intValue() < Level.FINER.intValue()) {
+            return logger.isTraceEnabled();
+        } else if (level.intValue() < Level.INFO.intValue()) {
+            return logger.isDebugEnabled();
+        } else if (level.intValue() < Level.WARNING.intValue()) {
+            return logger.isInfoEnabled();
+        } else if (level.intValue() < Level.SEVERE.intValue()) {
+            return logger.isWarnEnabled();
+        }
+        return logger.isErrorEnabled();
+    }
 }
@@ -18,6 +18,7 @@ package de.themoep.resourcepacksplugin.velocity;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.google.common.net.InetAddresses;
 import com.google.inject.Inject;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
@@ -42,6 +43,7 @@ import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
 import de.themoep.resourcepacksplugin.velocity.events.ResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.velocity.events.ResourcePackSendEvent;
+import de.themoep.resourcepacksplugin.velocity.hosting.PackHttpServer;
 import de.themoep.resourcepacksplugin.velocity.integrations.FloodgateIntegration;
 import de.themoep.resourcepacksplugin.velocity.integrations.GeyserIntegration;
 import de.themoep.resourcepacksplugin.velocity.integrations.ViaVersionIntegration;
@@ -59,9 +61,12 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
@@ -85,6 +90,10 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
      * This is needed so that the server does not send the bungee pack if the user has a backend one.
      */
     private Map<UUID, Boolean> backendPackedPlayers = new ConcurrentHashMap<>();
+    /**
+     * Capabilities of the clients of connected players, looked up once on login
+     */
+    private final Map<UUID, ClientCapabilities> clientCapabilities = new ConcurrentHashMap<>();
     /**
      * Set of uuids of players which were authenticated by a backend server's plugin
      */
@@ -98,6 +107,8 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
     private FloodgateIntegration floodgate;
     private PluginMessageListener messageChannelHandler;
     private CurrentServerTracker serverTracker;
+    private PackHttpServer packServer = null;
+    private String packServerSettings = null;
 
     @Inject
     public VelocityResourcepacks(ProxyServer proxy, Logger logger, @DataDirectory Path dataFolder) {
@@ -111,6 +122,10 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
     @Subscribe
     public void onProxyDisable(ProxyShutdownEvent e) {
         JedisManager.INSTANCE.onDisable();
+        getPackManager().close();
+        if (packServer != null) {
+            packServer.stop();
+        }
     }
 
     @Subscribe
@@ -157,7 +172,7 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
                     }
                 });
 
-        if (isEnabled() && getConfig().getBoolean("autogeneratehashes", true)) {
+        if (isEnabled() && (getConfig().getBoolean("autogeneratehashes", true) || getPackManager().shouldCacheRemotePacks())) {
             getPackManager().generateHashes(null);
         }
 
@@ -220,91 +235,207 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
 
         lm = new LanguageManager(this, getConfig().getString("default-language"));
 
+        PackHttpServer replacedPackServer = null;
         getPackManager().init();
-        if (getConfig().isSection("packs")) {
-            log(Level.INFO, "Loading packs:");
-            Map<String, Object> packs = getConfig().getSection("packs");
-            for (Map.Entry<String, Object> s : packs.entrySet()) {
-                Object packSection = s.getValue();
-                try {
-                    ResourcePack pack = getPackManager().loadPack(s.getKey(), getConfigMap(packSection));
-                    log(Level.INFO, pack.getName() + " - " + (pack.getVariants().isEmpty() ? (pack.getUrl() + " - " + pack.getHash()) : pack.getVariants().size() + " variants"));
+        try {
+            replacedPackServer = setupPackServer();
+            getPackManager().setOptimizeLocalPacks(getConfig().getBoolean("hosting.optimize-packs", false));
+            getPackManager().setOptimizeAssets(getConfig().getBoolean("hosting.optimize-assets", false));
+            getPackManager().getAssetOptimizer().setMaxSize(getConfig().getInt("hosting.asset-cache-max-size", 256) * 1024L * 1024L);
+            getPackManager().setMergePacks(getConfig().getBoolean("hosting.merge-packs", false));
+            getPackManager().getScanner().setMaxSize(getConfig().getInt("pack-limits.max-size", 250) * 1024L * 1024L);
+            getPackManager().getScanner().setMaxUncompressedSize(getConfig().getInt("pack-limits.max-uncompressed-size", 0) * 1024L * 1024L);
+            getPackManager().getScanner().setMaxEntries(getConfig().getInt("pack-limits.max-entries", 0));
+            getPackManager().getScanner().setMaxEntrySize(getConfig().getInt("pack-limits.max-entry-size", 0) * 1024L * 1024L);
+            if (getConfig().isSection("packs")) {
+                log(Level.INFO, "Loading packs:");
+                Map<String, Object> packs = getConfig().getSection("packs");
+                for (Map.Entry<String, Object> s : packs.entrySet()) {
+                    Object packSection = s.getValue();
+                    try {
+                        ResourcePack pack = getPackManager().loadPack(s.getKey(), getConfigMap(packSection));
+                        log(Level.INFO, pack.getName() + " - " + (pack.getVariants().isEmpty() ? (pack.getUrl() + " - " + pack.getHash()) : pack.getVariants().size() + " variants"));
 
-                    ResourcePack previous = getPackManager().addPack(pack);
-                    if (previous != null) {
-                        log(Level.WARNING, "Multiple resource packs with name '" + previous.getName().toLowerCase() + "' found!");
+                        ResourcePack previous = getPackManager().addPack(pack);
+                        if (previous != null) {
+                            log(Level.WARNING, "Multiple resource packs with name '" + previous.getName().toLowerCase() + "' found!");
+                        }
+                        logDebug(pack.serialize().toString());
+                    } catch (IllegalArgumentException e) {
+                        log(Level.SEVERE, "Error while loading pack " + s, e);
                     }
-                    logDebug(pack.serialize().toString());
-                } catch (IllegalArgumentException e) {
-                    log(Level.SEVERE, "Error while loading pack " + s, e);
                 }
+            } else {
+                logDebug("No packs defined!");
             }
-        } else {
-            logDebug("No packs defined!");
-        }
 
-        if (getConfig().isSection("empty")) {
-            Map<String, Object> packSection = getConfig().getSection("empty");
-            try {
-                ResourcePack pack = getPackManager().loadPack(PackManager.EMPTY_IDENTIFIER, getConfigMap(packSection));
-                log(Level.INFO, "Empty pack - " + (pack.getVariants().isEmpty() ? (pack.getUrl() + " - " + pack.getHash()) : pack.getVariants().size() + " variants"));
+            if (getConfig().isSection("empty")) {
+                Map<String, Object> packSection = getConfig().getSection("empty");
+                try {
+                    ResourcePack pack = getPackManager().loadPack(PackManager.EMPTY_IDENTIFIER, getConfigMap(packSection));
+                    log(Level.INFO, "Empty pack - " + (pack.getVariants().isEmpty() ? (pack.getUrl() + " - " + pack.getHash()) : pack.getVariants().size() + " variants"));
 
-                getPackManager().addPack(pack);
-                getPackManager().setEmptyPack(pack);
-            } catch (IllegalArgumentException e) {
-                log(Level.SEVERE, "Error while loading empty pack", e);
-            }
-        } else {
-            String emptypackname = getConfig().getString("empty");
-            if (emptypackname != null && !emptypackname.isEmpty()) {
-                ResourcePack ep = getPackManager().getByName(emptypackname);
-                if (ep != null) {
-                    log(Level.INFO, "Empty pack: " + ep.getName());
-                    getPackManager().setEmptyPack(ep);
+                    getPackManager().addPack(pack);
+                    getPackManager().setEmptyPack(pack);
+                } catch (IllegalArgumentException e) {
+                    log(Level.SEVERE, "Error while loading empty pack", e);
+                }
+            } else {
+                String emptypackname = getConfig().getString("empty");
+                if (emptypackname != null && !emptypackname.isEmpty()) {
+                    ResourcePack ep = getPackManager().getByName(emptypackname);
+                    if (ep != null) {
+                        log(Level.INFO, "Empty pack: " + ep.getName());
+                        getPackManager().setEmptyPack(ep);
+                    } else {
+                        log(Level.WARNING, "Cannot set empty resourcepack as there is no pack with the name " + emptypackname + " defined!");
+                    }
                 } else {
-                    log(Level.WARNING, "Cannot set empty resourcepack as there is no pack with the name " + emptypackname + " defined!");
+                    log(Level.WARNING, "No empty pack defined!");
                 }
+            }
+
+            if (getConfig().isSection("global")) {
+                log(Level.INFO, "Loading global assignment...");
+                Map<String, Object> globalSection = getConfig().getSection("global");
+                PackAssignment globalAssignment = getPackManager().loadAssignment("global", globalSection);
+                getPackManager().setGlobalAssignment(globalAssignment);
+                logDebug("Loaded " + globalAssignment.toString());
             } else {
-                log(Level.WARNING, "No empty pack defined!");
+                logDebug("No global assignment defined!");
             }
-        }
 
-        if (getConfig().isSection("global")) {
-            log(Level.INFO, "Loading global assignment...");
-            Map<String, Object> globalSection = getConfig().getSection("global");
-            PackAssignment globalAssignment = getPackManager().loadAssignment("global", globalSection);
-            getPackManager().setGlobalAssignment(globalAssignment);
-            logDebug("Loaded " + globalAssignment.toString());
-        } else {
-            logDebug("No global assignment defined!");
-        }
-
-        if (getConfig().isSection("servers")) {
-            log(Level.INFO, "Loading server assignments...");
-            Map<String, Object> servers = getConfig().getSection("servers");
-            for (Map.Entry<String, Object> server : servers.entrySet()) {
-                Object serverSection = server.getValue();
-                if (serverSection instanceof Map) {
-                    log(Level.INFO, "Loading assignment for server " + server.getKey() + "...");
-                    PackAssignment serverAssignment = getPackManager().loadAssignment(server.getKey(), (Map<String, Object>) serverSection);
-                    getPackManager().addAssignment(serverAssignment);
-                    logDebug("Loaded server assignment " + serverAssignment.toString());
-                } else {
-                    log(Level.WARNING, "Config has entry for server " + server.getKey() + " but it is not a configuration section?");
+            if (getConfig().isSection("servers")) {
+                log(Level.INFO, "Loading server assignments...");
+                Map<String, Object> servers = getConfig().getSection("servers");
+                for (Map.Entry<String, Object> server : servers.entrySet()) {
+                    Object serverSection = server.getValue();
+                    if (serverSection instanceof Map) {
+                        log(Level.INFO, "Loading assignment for server " + server.getKey() + "...");
+                        PackAssignment serverAssignment = getPackManager().loadAssignment(server.getKey(), (Map<String, Object>) serverSection);
+                        getPackManager().addAssignment(serverAssignment);
+                        logDebug("Loaded server assignment " + serverAssignment.toString());
+                    } else {
+                        log(Level.WARNING, "Config has entry for server " + server.getKey() + " but it is not a configuration section?");
+                    }
                 }
+            } else {
+                logDebug("No server assignments defined!");
             }
-        } else {
-            logDebug("No server assignments defined!");
+            getPackManager().publishPacks();
+        } finally {
+            // keeps the previously published packs and assignments if loading failed
+            getPackManager().discardPendingPacks();
+            if (replacedPackServer != null) {
+                replacedPackServer.stop();
+            }
+        }
+
+        List<String> serverNames = new ArrayList<>();
+        for (RegisteredServer server : getProxy().getAllServers()) {
+            serverNames.add(server.getServerInfo().getName());
         }
+        getPackManager().warmAssignmentCache(serverNames);
 
         getPackManager().setStoredPacksOverride(getConfig().getBoolean("stored-packs-override-assignments"));
         logDebug("Stored packs override assignments: " + getPackManager().getStoredPacksOverride());
 
         getPackManager().setAppendHashToUrl(getConfig().getBoolean("append-hash-to-url"));
         logDebug("Append hash to pack URL: " + getPackManager().shouldAppendHashToUrl());
+
+        getPackManager().getPermissionCache().setTtl(getConfig().getInt("permission-cache-ttl", 60) * 1000L);
+        getPackManager().getPermissionCache().invalidateAll();
+
+        getPackManager().setHashGenerationParallelism(getConfig().getInt("hash-generation-parallelism", 4));
+        getPackManager().getFileWatcher().setPollInterval(getConfig().getInt("local-pack-poll-interval", 5) * 1000L);
+
+        getPackManager().setCacheRemotePacks(getConfig().getBoolean("pack-cache.enabled", false));
+        getPackManager().getPackCache().setMaxSize(getConfig().getInt("pack-cache.max-size", 512) * 1024L * 1024L);
+        if (getConfig().getBoolean("pack-cache.enabled", false) && !getPackManager().shouldCacheRemotePacks()) {
+            log(Level.WARNING, "The pack cache requires the built-in web server to be enabled in the 'hosting' section!");
+        }
+
+        getPackManager().getMirrorHealthChecker().setTimeout(getConfig().getInt("mirrors.timeout", 5000));
+        try {
+            getPackManager().getMirrorHealthChecker().setSelection(MirrorHealthChecker.Selection.valueOf(getConfig().getString("mirrors.selection", "fastest").toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            log(Level.WARNING, "Invalid mirror selection " + getConfig().getString("mirrors.selection") + "! Only fastest and weighted are supported.");
+        }
+        getPackManager().getMirrorHealthChecker().start(getConfig().getInt("mirrors.check-interval", 60) * 1000L);
+
+        getPackManager().getRemotePackRefresher().setRequestsPerMinute(getConfig().getInt("remote-refresh.requests-per-minute", 30));
+        if (getConfig().getBoolean("remote-refresh.enabled", false)) {
+            getPackManager().getRemotePackRefresher().start(getConfig().getInt("remote-refresh.interval", 10) * 60 * 1000L);
+            logDebug("Checking remote packs for changes every " + getConfig().getInt("remote-refresh.interval", 10) + " minutes");
+        } else {
+            getPackManager().getRemotePackRefresher().stop();
+        }
         return true;
     }
 
+    /**
+     * Start the built-in web server if it's enabled and its settings changed. The public url of it only applies
+     * once the packs that are being loaded are published, the previous server keeps serving the current ones until then.
+     * @return The previous server that needs to be stopped after publishing the packs or <code>null</code> if there is none
+     */
+    private PackHttpServer setupPackServer() {
+        getPackManager().setLocalPackBaseUrl(null);
+        if (!getConfig().getBoolean("hosting.enabled", false)) {
+            return replacePackServer(null, null);
+        }
+        String publicUrl = getConfig().getString("hosting.public-url", "");
+        if (publicUrl == null || publicUrl.isEmpty()) {
+            log(Level.SEVERE, "The built-in web server is enabled but no 'hosting.public-url' is set! Set it to the url under which players can reach the server, local packs can't be sent without it.");
+            return replacePackServer(null, null);
+        }
+        try {
+            String host = URI.create(publicUrl).getHost();
+            if (host != null && host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            if (host == null) {
+                log(Level.WARNING, "The 'hosting.public-url' " + publicUrl + " has no host, players won't be able to download packs from it!");
+            } else if (host.equalsIgnoreCase("localhost")
+                    || InetAddresses.isInetAddress(host) && InetAddresses.forString(host).isLoopbackAddress()) {
+                log(Level.WARNING, "The 'hosting.public-url' " + publicUrl + " points to the local machine, players on other machines won't be able to download packs from it!");
+            }
+        } catch (IllegalArgumentException e) {
+            log(Level.WARNING, "The 'hosting.public-url' " + publicUrl + " is not a valid url: " + e.getMessage());
+        }
+        String host = getConfig().getString("hosting.address", "0.0.0.0");
+        int port = getConfig().getInt("hosting.port", 8150);
+        int maxConnections = getConfig().getInt("hosting.max-connections", 64);
+        String bindAddress = host + ":" + port;
+        String settings = bindAddress + "/" + maxConnections;
+        PackHttpServer replaced = null;
+        if (packServer == null || !settings.equals(packServerSettings)) {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (packServer != null && packServerSettings.startsWith(bindAddress + "/")) {
+                // same address, the old server needs to free it first
+                packServer.stop();
+                packServer = null;
+            }
+            PackHttpServer server = new PackHttpServer(this, address, maxConnections);
+            try {
+                server.start();
+            } catch (IOException e) {
+                log(Level.SEVERE, "Unable to start pack web server on " + address + "!", e);
+                return replacePackServer(null, null);
+            }
+            replaced = replacePackServer(server, settings);
+        }
+        getPackManager().setLocalPackBaseUrl(publicUrl);
+        logDebug("Local packs will be served under " + publicUrl);
+        return replaced;
+    }
+
+    private PackHttpServer replacePackServer(PackHttpServer server, String settings) {
+        PackHttpServer previous = packServer;
+        packServer = server;
+        packServerSettings = settings;
+        return previous;
+    }
+
     @Override
     public Map<String, Object> getConfigMap(Object configuration) {
         return PluginConfig.getConfigMap(configuration);
@@ -320,9 +451,7 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
         if (isEnabled() && resend) {
             log(Level.INFO, "Resending packs for all online players!");
             getUserManager().clearUserPacks();
-            for (Player p : getProxy().getAllPlayers()) {
-                resendPack(p);
-            }
+            resendPacks(getProxy().getAllPlayers());
         }
     }
 
@@ -425,17 +554,36 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
      * @param player The player to set the pack for
      */
     public void resendPack(Player player) {
-        String serverName = "";
-        if (player.getCurrentServer().isPresent()) {
-            serverName = player.getCurrentServer().get().getServerInfo().getName();
-        }
-        getPackManager().applyPack(getPlayer(player), serverName);
+        getPackManager().applyPack(getPlayer(player), getServerName(player));
     }
 
     public void resendPack(UUID playerId) {
         getProxy().getPlayer(playerId).ifPresent(this::resendPack);
     }
 
+    /**
+     * Resends the packs that correspond to the servers of multiple players at once
+     *
+     * @param players The players to set the packs for
+     */
+    public void resendPacks(Collection<Player> players) {
+        Map<UUID, String> playerServers = new LinkedHashMap<>();
+        for (Player player : players) {
+            playerServers.put(player.getUniqueId(), getServerName(player));
+        }
+        getPackManager().applyPacks(playerServers);
+    }
+
+    /**
+     * Get the name of the server that a player is connected to
+     *
+     * @param player The player
+     * @return The name of the server or an empty string if the player isn't connected to one
+     */
+    private String getServerName(Player player) {
+        return player.getCurrentServer().map(server -> server.getServerInfo().getName()).orElse("");
+    }
+
     /**
      * Send a resourcepack to a connected player
      *
@@ -483,9 +631,13 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
             }
             try {
                 player.sendResourcePackOffer(packInfoBuilder.build());
-                logDebug("Sent pack " + pack.getName() + " (" + pack.getUrl() + ") to " + player.getUsername() + ".");
+                if (isDebugLoggable()) {
+                    logDebug("Sent pack " + pack.getName() + " (" + pack.getUrl() + ") to " + player.getUsername() + ".");
+                }
             } catch (IllegalStateException e) {
-                logDebug("Not sending pack " + pack.getName() + "to " + player.getUsername() + ": " + e.getMessage());
+                if (isDebugLoggable()) {
+                    logDebug("Not sending pack " + pack.getName() + "to " + player.getUsername() + ": " + e.getMessage());
+                }
             }
         } else {
             log(Level.WARNING, "Cannot send the pack " + pack.getName() + " (" + pack.getUrl() + ") to " + player.getUsername() + " as he uses the unsupported protocol version " + clientVersion + "!");
@@ -835,28 +987,75 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
 
     @Override
     public int getPlayerProtocol(UUID playerId) {
-        if (viaApi != null) {
-            return viaApi.getPlayerVersion(playerId);
-        }
+        return getClientCapabilities(playerId).getProtocol();
+    }
 
-        return getProxy().getPlayer(playerId).map(p -> p.getProtocolVersion().getProtocol()).orElse(-1);
+    @Override
+    public int getPlayerPackFormat(UUID playerId) {
+        return getClientCapabilities(playerId).getPackFormat();
     }
 
     @Override
     public ClientType getPlayerClientType(UUID playerId) {
-        if (geyser != null && geyser.hasPlayer(playerId)) {
-            return ClientType.BEDROCK;
+        return getClientCapabilities(playerId).getClientType();
+    }
+
+    @Override
+    public boolean supportsMultiplePacks(UUID playerId) {
+        return getClientCapabilities(playerId).supportsMultiplePacks();
+    }
+
+    @Override
+    public ClientCapabilities getClientCapabilities(UUID playerId) {
+        ClientCapabilities capabilities = clientCapabilities.get(playerId);
+        if (capabilities == null) {
+            // not logged in (yet), look it up without storing it
+            capabilities = lookupClientCapabilities(playerId);
         }
+        return capabilities;
+    }
+
+    /**
+     * Look up the capabilities of a player's client and keep them until {@link #removeClientCapabilities(UUID)} is called
+     * @param playerId The UUID of the player
+     */
+    public void updateClientCapabilities(UUID playerId) {
+        clientCapabilities.put(playerId, lookupClientCapabilities(playerId));
+    }
+
+    /**
+     * Forget the capabilities of a player's client, e.g. when they disconnect
+     * @param playerId The UUID of the player
+     */
+    public void removeClientCapabilities(UUID playerId) {
+        clientCapabilities.remove(playerId);
+    }
 
-        if (floodgate != null && floodgate.hasPlayer(playerId)) {
-            return ClientType.BEDROCK;
+    private ClientCapabilities lookupClientCapabilities(UUID playerId) {
+        int protocol;
+        if (viaApi != null) {
+            protocol = viaApi.getPlayerVersion(playerId);
+        } else {
+            protocol = getProxy().getPlayer(playerId).map(p -> p.getProtocolVersion().getProtocol()).orElse(-1);
         }
 
-        if (geyser != null || floodgate != null) {
-            return ClientType.ORIGINAL;
+        ClientType clientType;
+        if (geyser != null && geyser.hasPlayer(playerId)) {
+            clientType = ClientType.BEDROCK;
+        } else if (floodgate != null && floodgate.hasPlayer(playerId)) {
+            clientType = ClientType.BEDROCK;
+        } else if (geyser != null || floodgate != null) {
+            clientType = ClientType.ORIGINAL;
+        } else {
+            clientType = ResourcepacksPlugin.super.getPlayerClientType(playerId);
         }
 
-        return ResourcepacksPlugin.super.getPlayerClientType(playerId);
+        return new ClientCapabilities(
+                protocol,
+                protocol > -1 ? getPackManager().getPackFormat(protocol) : -1,
+                clientType,
+                protocol >= MinecraftVersion.MINECRAFT_1_20_3.getProtocolNumber()
+        );
     }
 
     @Override
@@ -881,6 +1080,30 @@ public class VelocityResourcepacks implements ResourcepacksPlugin, Languaged {
         return null;
     }
 
+    @Override
+    public CompletableFuture<IResourcePackSelectEvent> callPackSelectEventAsync(UUID playerId, List<ResourcePack> packs, IResourcePackSelectEvent.Status status) {
+        ResourcePackSelectEvent selectEvent = new ResourcePackSelectEvent(playerId, packs, status);
+        return getProxy().getEventManager().fire(selectEvent).handle((event, throwable) -> {
+            if (throwable != null) {
+                getPluginLogger().log(Level.SEVERE, "Error while firing ResourcePackSelectEvent!", throwable);
+                return selectEvent;
+            }
+            return event;
+        });
+    }
+
+    @Override
+    public CompletableFuture<IResourcePackSendEvent> callPackSendEventAsync(UUID playerId, ResourcePack pack) {
+        ResourcePackSendEvent sendEvent = new ResourcePackSendEvent(playerId, pack);
+        return getProxy().getEventManager().fire(sendEvent).handle((event, throwable) -> {
+            if (throwable != null) {
+                getPluginLogger().log(Level.SEVERE, "Error while firing ResourcePackSendEvent!", throwable);
+                return sendEvent;
+            }
+            return event;
+        });
+    }
+
     @Override
     public boolean isAuthenticated(UUID playerId) {
         return !getConfig().getBoolean("use-auth-plugin", getConfig().getBoolean("useauth", false)) || authenticatedPlayers.contains(playerId);
@@ -0,0 +1,419 @@
+package de.themoep.resourcepacksplugin.velocity.hosting;
+
+/*
+ * ResourcepacksPlugins - velocity
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.themoep.resourcepacksplugin.core.HostedFile;
+import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Minimal HTTP/1.1 server that serves the files of locally hosted packs and the pack cache.
+ * Files are sent directly from the page cache to the socket with {@link FileChannel#transferTo}
+ * so they never get copied into the heap. Supports HEAD, single byte ranges and
+ * conditional requests with the sha1 hash of the pack as its entity tag.
+ * Connections of clients that stop sending their request or stop receiving data are closed after a timeout
+ * so that they don't keep one of the limited connection slots forever.
+ */
+public class PackHttpServer {
+
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    private static final int READ_TIMEOUT = 10 * 1000;
+    private static final int WRITE_TIMEOUT = 30 * 1000;
+
+    private final ResourcepacksPlugin plugin;
+    private final InetSocketAddress address;
+    private final Semaphore connections;
+    private final int maxConnections;
+    private final Function<String, HostedFile> files;
+    private final long writeTimeout;
+
+    private ServerSocketChannel serverChannel = null;
+    private Thread acceptThread = null;
+    private ExecutorService workers = null;
+
+    public PackHttpServer(ResourcepacksPlugin plugin, InetSocketAddress address, int maxConnections) {
+        this(plugin, address, maxConnections, path -> plugin.getPackManager().getHostedFile(path), WRITE_TIMEOUT);
+    }
+
+    /**
+     * @param plugin            The plugin
+     * @param address           The address to listen on
+     * @param maxConnections    The maximum amount of connections that are served at once
+     * @param files             Resolves the path of a request to the file to serve
+     * @param writeTimeout      How long a client may not receive any data in milliseconds before its connection is closed
+     */
+    PackHttpServer(ResourcepacksPlugin plugin, InetSocketAddress address, int maxConnections, Function<String, HostedFile> files, long writeTimeout) {
+        this.plugin = plugin;
+        this.address = address;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.connections = new Semaphore(this.maxConnections);
+        this.files = files;
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Start listening for connections
+     * @throws IOException If the server socket could not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (serverChannel != null) {
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        workers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Pack Server Worker #%d")
+                .setDaemon(true)
+                .build());
+        ServerSocketChannel channel = serverChannel;
+        acceptThread = new Thread(() -> accept(channel), plugin.getName() + " Pack Server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        plugin.log(Level.INFO, "Serving local packs on " + getAddress() + " (max. " + maxConnections + " connections)");
+    }
+
+    /**
+     * Stop the server and close all open connections
+     */
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            plugin.log(Level.WARNING, "Error while closing pack server socket", e);
+        }
+        serverChannel = null;
+        acceptThread.interrupt();
+        acceptThread = null;
+        workers.shutdownNow();
+        workers = null;
+    }
+
+    /**
+     * Get the address that the server is listening on. If the configured port was 0
+     * then this will contain the port that was chosen by the system.
+     * @return The address
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            if (serverChannel != null && serverChannel.getLocalAddress() instanceof InetSocketAddress local) {
+                return local;
+            }
+        } catch (IOException ignored) {}
+        return address;
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        while (!Thread.currentThread().isInterrupted()) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                plugin.log(Level.WARNING, "Error while accepting pack server connection", e);
+                continue;
+            }
+            if (!connections.tryAcquire()) {
+                workers.execute(() -> {
+                    try (SocketChannel c = client) {
+                        writeHead(c, null, 503, "Service Unavailable", 0, Map.of("Retry-After", "5"));
+                    } catch (IOException ignored) {}
+                });
+                continue;
+            }
+            workers.execute(() -> {
+                try (SocketChannel c = client) {
+                    c.socket().setSoTimeout(READ_TIMEOUT);
+                    c.socket().setTcpNoDelay(true);
+                    handle(c);
+                } catch (SocketTimeoutException | ClosedChannelException ignored) {
+                    // client went away
+                } catch (IOException e) {
+                    plugin.logDebug("Error while serving pack to " + client.socket().getRemoteSocketAddress() + ": " + e.getMessage());
+                } finally {
+                    connections.release();
+                }
+            });
+        }
+    }
+
+    private void handle(SocketChannel channel) throws IOException {
+        Request request = readRequest(channel.socket().getInputStream());
+        // only write from now on, without blocking so that clients which stop receiving can time out
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_WRITE);
+            respond(channel, selector, request);
+        }
+    }
+
+    private void respond(SocketChannel channel, Selector selector, Request request) throws IOException {
+        if (request == null) {
+            writeHead(channel, selector, 400, "Bad Request", 0, Map.of());
+            return;
+        }
+        boolean head = "HEAD".equals(request.method);
+        if (!head && !"GET".equals(request.method)) {
+            writeHead(channel, selector, 405, "Method Not Allowed", 0, Map.of("Allow", "GET, HEAD"));
+            return;
+        }
+
+        HostedFile hosted = files.apply(request.path);
+        if (hosted == null) {
+            writeHead(channel, selector, 404, "Not Found", 0, Map.of());
+            return;
+        }
+        Path file = hosted.getFile();
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Content-Type", "application/zip");
+            headers.put("Accept-Ranges", "bytes");
+            headers.put("Cache-Control", "no-cache");
+            String etag = null;
+            if (!hosted.getHash().isEmpty()) {
+                etag = "\"" + hosted.getHash() + "\"";
+                headers.put("ETag", etag);
+            }
+            headers.put("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Files.getLastModifiedTime(file).toInstant().atZone(ZoneOffset.UTC)));
+
+            if (etag != null && matches(request.headers.get("if-none-match"), etag)) {
+                writeHead(channel, selector, 304, "Not Modified", -1, headers);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String range = request.headers.get("range");
+            String ifRange = request.headers.get("if-range");
+            if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                long[] parsed = parseRange(range, size);
+                if (parsed == null) {
+                    headers.put("Content-Range", "bytes */" + size);
+                    writeHead(channel, selector, 416, "Range Not Satisfiable", 0, headers);
+                    return;
+                }
+                start = parsed[0];
+                end = parsed[1];
+                status = 206;
+                headers.put("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+
+            long length = end - start + 1;
+            writeHead(channel, selector, status, status == 206 ? "Partial Content" : "OK", length, headers);
+            if (!head) {
+                long position = start;
+                long remaining = length;
+                while (remaining > 0) {
+                    long sent = fileChannel.transferTo(position, remaining, channel);
+                    if (sent <= 0) {
+                        if (position >= fileChannel.size()) {
+                            // file was truncated while sending
+                            break;
+                        }
+                        awaitWritable(selector);
+                        continue;
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            writeHead(channel, selector, 404, "Not Found", 0, Map.of());
+        }
+    }
+
+    /**
+     * Wait until the client is able to receive more data
+     * @param selector The selector that the client's channel is registered with for writing
+     * @throws SocketTimeoutException If the client didn't receive anything within the write timeout
+     */
+    private void awaitWritable(Selector selector) throws IOException {
+        if (selector.select(writeTimeout) == 0) {
+            throw new SocketTimeoutException("Client didn't receive any data for " + writeTimeout + "ms");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a single byte range
+     * @param range The value of the Range header
+     * @param size  The size of the file
+     * @return The first and the last byte (inclusive) or <code>null</code> if the range is not satisfiable
+     */
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') > -1) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (start > end || start >= size) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the request line and headers. Reads as much as the client sent at once and stops at the end of the headers,
+     * anything after them is ignored as only GET and HEAD requests without a body are supported.
+     * @param in The input stream of the client's socket
+     * @return The request or <code>null</code> if it was invalid or its headers were too large
+     * @throws IOException If the client didn't send the whole request within the read timeout
+     */
+    private static Request readRequest(InputStream in) throws IOException {
+        byte[] buffer = new byte[MAX_HEADER_SIZE];
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT);
+        int length = 0;
+        int end = -1;
+        while (end < 0) {
+            if (length == buffer.length) {
+                return null;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new SocketTimeoutException("Client didn't send its request within " + READ_TIMEOUT + "ms");
+            }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                end = length;
+                break;
+            }
+            // the end might have started in the previous chunk
+            for (int i = Math.max(3, length); i < length + read; i++) {
+                if (buffer[i - 3] == '\r' && buffer[i - 2] == '\n' && buffer[i - 1] == '\r' && buffer[i] == '\n') {
+                    end = i + 1;
+                    break;
+                }
+            }
+            length += read;
+        }
+        String[] lines = new String(buffer, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            return null;
+        }
+        String path = requestLine[1];
+        int queryIndex = path.indexOf('?');
+        if (queryIndex > -1) {
+            path = path.substring(0, queryIndex);
+        }
+        int fragmentIndex = path.indexOf('#');
+        if (fragmentIndex > -1) {
+            path = path.substring(0, fragmentIndex);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+            }
+        }
+        return new Request(requestLine[0], path, headers);
+    }
+
+    private void writeHead(SocketChannel channel, Selector selector, int status, String reason, long contentLength, Map<String, String> headers) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        head.append("Server: ResourcepacksPlugins\r\n");
+        head.append("Connection: close\r\n");
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        ByteBuffer buffer = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0 && selector != null) {
+                awaitWritable(selector);
+            }
+        }
+    }
+
+    private record Request(String method, String path, Map<String, String> headers) {}
+}
@@ -40,9 +40,8 @@ public class JedisManager {
 
                         for (Player p : VelocityResourcepacks.INSTANCE.getProxy().getAllPlayers()) {
                             VelocityResourcepacks.INSTANCE.clearPack(p);
-
-                            VelocityResourcepacks.INSTANCE.resendPack(p);
                         }
+                        VelocityResourcepacks.INSTANCE.resendPacks(VelocityResourcepacks.INSTANCE.getProxy().getAllPlayers());
 
                         System.out.println("Pack reloaded from redis!");
                     }
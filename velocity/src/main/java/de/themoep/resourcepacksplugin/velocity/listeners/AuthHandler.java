@@ -23,6 +23,7 @@ import de.themoep.resourcepacksplugin.core.ResourcepacksPlayer;
 import de.themoep.resourcepacksplugin.velocity.VelocityResourcepacks;
 
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class AuthHandler {
     protected final VelocityResourcepacks plugin;
@@ -50,13 +51,20 @@ public class AuthHandler {
             if (sendDelay > 0) {
                 String finalServerName = serverName;
                 plugin.getProxy().getScheduler()
-                        .buildTask(plugin, () -> plugin.getPackManager().applyPack(rpPlayer, finalServerName))
+                        .buildTask(plugin, () -> applyPack(rpPlayer, finalServerName))
                         .delay(sendDelay * 20, TimeUnit.MILLISECONDS)
                         .schedule();
             } else {
-                plugin.getPackManager().applyPack(rpPlayer, serverName);
+                applyPack(rpPlayer, serverName);
             }
         }
     }
 
+    private void applyPack(ResourcepacksPlayer player, String serverName) {
+        plugin.getPackManager().applyPackAsync(player, serverName).exceptionally(throwable -> {
+            plugin.getPluginLogger().log(Level.SEVERE, "Error while sending packs to " + player.getName() + " after they authenticated!", throwable);
+            return null;
+        });
+    }
+
 }
@@ -18,8 +18,11 @@ package de.themoep.resourcepacksplugin.velocity.listeners;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.permission.PermissionsSetupEvent;
+import com.velocitypowered.api.proxy.Player;
 import de.themoep.resourcepacksplugin.velocity.VelocityResourcepacks;
 
 /**
@@ -33,10 +36,25 @@ public class ConnectListener {
         this.plugin = plugin;
     }
 
+    @Subscribe(order = PostOrder.FIRST)
+    public void onPlayerLogin(PostLoginEvent event) {
+        if (plugin.isEnabled()) {
+            plugin.updateClientCapabilities(event.getPlayer().getUniqueId());
+        }
+    }
+
     @Subscribe
     public void onPlayerConnect(PostLoginEvent event) {
         if (plugin.isEnabled()) {
             plugin.getUserManager().onConnect(event.getPlayer().getUniqueId());
         }
     }
+
+    @Subscribe(order = PostOrder.LAST)
+    public void onPermissionsSetup(PermissionsSetupEvent event) {
+        if (plugin.isEnabled() && event.getSubject() instanceof Player) {
+            // the permission provider of the player changed, don't use results of the previous one
+            plugin.getPackManager().getPermissionCache().invalidate(((Player) event.getSubject()).getUniqueId());
+        }
+    }
 }
@@ -37,6 +37,8 @@ public class DisconnectListener {
     public void onPlayerDisconnect(DisconnectEvent event) {
         if (plugin.isEnabled()) {
             plugin.getUserManager().onDisconnect(event.getPlayer().getUniqueId());
+            plugin.getPackManager().getPermissionCache().invalidate(event.getPlayer().getUniqueId());
+            plugin.removeClientCapabilities(event.getPlayer().getUniqueId());
             plugin.setAuthenticated(event.getPlayer().getUniqueId(), false);
         }
     }
@@ -93,15 +93,22 @@ public class ServerSwitchListener {
             }
 
             if (sendDelay <= 0) {
-                Set<ResourcePack> packs = calculatePack(playerId);
-                if (!packs.isEmpty()) {
+                return EventTask.resumeWhenComplete(calculatePack(playerId).thenCompose(packs -> {
+                    if (packs.isEmpty()) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
                     CompletableFuture<Boolean> lockFuture = CompletableFuture.completedFuture(true);
                     for (ResourcePack pack : packs) {
                         if (hasPack(player, pack)) {
-                            plugin.logDebug("Player " + player.getUsername() + " already has the pack " + pack.getUuid() + " applied");
+                            if (plugin.isDebugLoggable()) {
+                                plugin.logDebug("Player " + player.getUsername() + " already has the pack " + pack.getUuid() + " applied");
+                            }
                         } else {
                             CompletableFuture<Boolean> future = new CompletableFuture<>();
                             future.whenComplete((success, throwable) -> {
+                                if (!plugin.isDebugLoggable()) {
+                                    return;
+                                }
                                 if (success) {
                                     plugin.logDebug("Successfully sent pack " + pack.getUuid() + " to " + player.getUsername());
                                 } else {
@@ -113,7 +120,7 @@ public class ServerSwitchListener {
                         }
                     }
                     String playerName = player.getUsername();
-                    return EventTask.resumeWhenComplete(lockFuture.thenAccept(success -> {
+                    return lockFuture.thenAccept(success -> {
                         alreadyAppliedPacks.removeAll(playerId);
                         appliedInConfigPhase.add(playerId);
                         if (success) {
@@ -121,8 +128,11 @@ public class ServerSwitchListener {
                         } else {
                             plugin.logDebug("Allowing Configuration phase even through we failed to send all packs to " + playerName);
                         }
-                    }));
-                }
+                    });
+                }).exceptionally(throwable -> {
+                    plugin.getPluginLogger().log(Level.SEVERE, "Error while sending packs to " + player.getUsername() + " in the configuration phase!", throwable);
+                    return null;
+                }));
             }
         }
         return null;
@@ -134,7 +144,7 @@ public class ServerSwitchListener {
         }
 
         for (ResourcePackInfo resourcePack : player.getAppliedResourcePacks()) {
-            if (resourcePack.getId().equals(pack.getUuid()) && resourcePack.getUrl().equals(pack.getUrl())) {
+            if (resourcePack.getId().equals(pack.getUuid()) && plugin.getPackManager().isPackUrl(pack, resourcePack.getUrl())) {
                 return true;
             }
         }
@@ -195,29 +205,40 @@ public class ServerSwitchListener {
             }
 
             if (sendDelay > 0) {
-                plugin.getProxy().getScheduler().buildTask(plugin, () -> calculatePack(playerId)).delay(sendDelay * 50, TimeUnit.MILLISECONDS).schedule();
+                plugin.getProxy().getScheduler().buildTask(plugin, () -> sendPacks(playerId)).delay(sendDelay * 50, TimeUnit.MILLISECONDS).schedule();
             } else if (!appliedInConfigPhase.contains(playerId)) {
-                calculatePack(playerId);
+                sendPacks(playerId);
             }
             appliedInConfigPhase.remove(playerId);
         }
     }
 
-    private Set<ResourcePack> calculatePack(UUID playerId) {
+    private void sendPacks(UUID playerId) {
+        calculatePack(playerId).exceptionally(throwable -> {
+            plugin.getPluginLogger().log(Level.SEVERE, "Error while sending packs to " + playerId + " after a server switch!", throwable);
+            return null;
+        });
+    }
+
+    private CompletableFuture<Set<ResourcePack>> calculatePack(UUID playerId) {
         if (plugin.hasBackend(playerId)) {
-            plugin.logDebug("Player " + playerId + " has backend pack, not attempting to send a new one.");
-            return Collections.emptySet();
+            if (plugin.isDebugLoggable()) {
+                plugin.logDebug("Player " + playerId + " has backend pack, not attempting to send a new one.");
+            }
+            return CompletableFuture.completedFuture(Collections.emptySet());
         }
         if (!plugin.isAuthenticated(playerId)) {
-            plugin.logDebug("Player " + playerId + " is not authenticated, not attempting to send a pack yet.");
-            return Collections.emptySet();
+            if (plugin.isDebugLoggable()) {
+                plugin.logDebug("Player " + playerId + " is not authenticated, not attempting to send a pack yet.");
+            }
+            return CompletableFuture.completedFuture(Collections.emptySet());
         }
         Optional<Player> player = plugin.getProxy().getPlayer(playerId);
         if (player.isPresent()) {
             Player p = player.get();
             String serverName = plugin.getCurrentServerTracker().getCurrentServer(p);
-            return plugin.getPackManager().applyPack(plugin.getPlayer(p), serverName);
+            return plugin.getPackManager().applyPackAsync(plugin.getPlayer(p), serverName);
         }
-        return Collections.emptySet();
+        return CompletableFuture.completedFuture(Collections.emptySet());
     }
 }
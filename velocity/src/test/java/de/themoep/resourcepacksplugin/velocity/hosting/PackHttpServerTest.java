@@ -0,0 +1,164 @@
+package de.themoep.resourcepacksplugin.velocity.hosting;
+
+/*
+ * ResourcepacksPlugins - velocity
+ * Copyright (C) 2024 Max Lee aka Phoenix616 (max@themoep.de)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.themoep.resourcepacksplugin.core.HostedFile;
+import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackHttpServerTest {
+
+    private static final long WRITE_TIMEOUT = 500;
+
+    @TempDir
+    Path folder;
+
+    private Path file;
+    private byte[] content;
+    private PackHttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // large enough to fill the socket buffers of a client that doesn't read
+        content = new byte[32 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        file = folder.resolve("pack.zip");
+        Files.write(file, content);
+        server = new PackHttpServer(plugin(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1,
+                path -> path.equals("/pack.zip") ? new HostedFile(file, "") : null, WRITE_TIMEOUT);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void servesRequestSentInPieces() throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            for (String piece : new String[]{"GET /pack.zip HT", "TP/1.1\r\nHost: local", "host\r\n\r", "\n"}) {
+                out.write(piece.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+            byte[] response = readAll(socket.getInputStream());
+            String head = head(response);
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"), head);
+            byte[] body = Arrays.copyOfRange(response, head.length() + 4, response.length);
+            assertArrayEquals(content, body);
+        }
+    }
+
+    @Test
+    void servesRange() throws IOException {
+        try (Socket socket = connect()) {
+            request(socket, "GET /pack.zip HTTP/1.1\r\nRange: bytes=10-19\r\n\r\n");
+            byte[] response = readAll(socket.getInputStream());
+            String head = head(response);
+            assertTrue(head.startsWith("HTTP/1.1 206 Partial Content"), head);
+            assertArrayEquals(Arrays.copyOfRange(content, 10, 20), Arrays.copyOfRange(response, head.length() + 4, response.length));
+        }
+    }
+
+    @Test
+    void stalledClientFreesItsConnection() throws Exception {
+        try (Socket stalled = connect()) {
+            stalled.setReceiveBufferSize(4096);
+            request(stalled, "GET /pack.zip HTTP/1.1\r\n\r\n");
+            // never read the response, the only connection slot is freed once the write times out
+            long deadline = System.currentTimeMillis() + WRITE_TIMEOUT + 10 * 1000;
+            String status;
+            do {
+                Thread.sleep(100);
+                try (Socket socket = connect()) {
+                    request(socket, "HEAD /pack.zip HTTP/1.1\r\n\r\n");
+                    status = head(readAll(socket.getInputStream()));
+                } catch (IOException e) {
+                    // rejected connections are closed without reading the request which might reset them
+                    status = e.getMessage();
+                }
+            } while (!status.startsWith("HTTP/1.1 200") && System.currentTimeMillis() < deadline);
+            assertTrue(status.startsWith("HTTP/1.1 200"), status);
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setSoTimeout(10 * 1000);
+        socket.connect(server.getAddress());
+        return socket;
+    }
+
+    private static void request(Socket socket, String request) throws IOException {
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+        socket.getOutputStream().flush();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String head(byte[] response) {
+        String text = new String(response, 0, Math.min(response.length, 1024), StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("\r\n\r\n");
+        return end > -1 ? text.substring(0, end) : text;
+    }
+
+    private static ResourcepacksPlugin plugin() {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("getName")) {
+                return "Test";
+            }
+            if (method.isDefault()) {
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            }
+            return method.getReturnType() == boolean.class ? false : null;
+        };
+        return (ResourcepacksPlugin) Proxy.newProxyInstance(PackHttpServerTest.class.getClassLoader(),
+                new Class<?>[]{ResourcepacksPlugin.class}, handler);
+    }
+}